@@ -0,0 +1,451 @@
+package eu.deic.jservlets;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable upload of one image in chunks, for large files and slow links:
+ * <pre>
+ * POST   /uploads?fileName=..&amp;size=..&amp;zoom=..&amp;mode=..[&amp;chunkSize=..][&amp;clientId=..]  -&gt; 201 {uploadId, chunkSize, chunkCount}
+ * PUT    /uploads/{id}          Content-Range: bytes first-last/size  -&gt; 204
+ * GET    /uploads/{id}          -&gt; {..., missing: [chunk indexes]}
+ * POST   /uploads/{id}/commit   -&gt; publishes the image like ImageUploadServlet
+ * DELETE /uploads/{id}          -&gt; abandons the upload
+ * </pre>
+ * Chunks may be sent in parallel and in any order; each one is written at its
+ * offset into a file preallocated under {@link ImageUploadServlet#UPLOAD_DIR},
+ * so a request only holds a Tomcat thread for the time one chunk takes.
+ * After a dropped connection the client asks which chunks are missing and
+ * sends only those. Each open upload holds a file descriptor and its full
+ * size on disk, so their number and total size are capped.
+ */
+@WebServlet(value = "/uploads/*", asyncSupported = true)
+public class ChunkedUploadServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    static final long MAX_UPLOAD_SIZE = 200L * 1024 * 1024;
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    // Same range as the upload form's slider
+    private static final int MIN_ZOOM = 1;
+    private static final int MAX_ZOOM = 200;
+    // Uploads nobody touched for this long are dropped with their file
+    private static final long UPLOAD_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long EXPIRY_CHECK_MINUTES = 1;
+    // Beyond these, new uploads get 503 until others finish or expire
+    private static final int MAX_OPEN_UPLOADS = 64;
+    private static final long MAX_RESERVED_BYTES = 2L * 1024 * 1024 * 1024;
+
+    private static final Pattern UPLOAD_PATH = Pattern.compile("/([0-9a-f-]{36})(/commit)?");
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    // Uploads started and not yet committed, deleted or expired, and the disk they preallocated
+    private int openUploads;
+    private long reservedBytes;
+    private ImagePublisher publisher;
+    private ScheduledExecutorService expiryTimer;
+
+    @Override
+    public void init() throws ServletException {
+        File uploadDir = new File(ImageUploadServlet.UPLOAD_DIR);
+        if (!uploadDir.exists()) {
+            uploadDir.mkdirs();
+        }
+        publisher = new ImagePublisher("chunked-upload-publisher");
+
+        expiryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chunked-upload-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        expiryTimer.scheduleWithFixedDelay(this::expireStaleUploads,
+                EXPIRY_CHECK_MINUTES, EXPIRY_CHECK_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() {
+        if (expiryTimer != null) {
+            expiryTimer.shutdownNow();
+        }
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+        for (Upload upload : uploads.values()) {
+            upload.closeQuietly();
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String path = request.getPathInfo();
+        if (path == null || path.equals("/")) {
+            startUpload(request, response);
+            return;
+        }
+        Matcher matcher = UPLOAD_PATH.matcher(path);
+        if (!matcher.matches() || matcher.group(2) == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        commitUpload(matcher.group(1), request, response);
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Upload upload = lookup(request, response);
+        if (upload == null) {
+            return;
+        }
+
+        Matcher range = CONTENT_RANGE.matcher(String.valueOf(request.getHeader("Content-Range")));
+        if (!range.matches()) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Content-Range: bytes first-last/size is required.");
+            return;
+        }
+        long first;
+        long last;
+        long total;
+        try {
+            first = Long.parseLong(range.group(1));
+            last = Long.parseLong(range.group(2));
+            total = Long.parseLong(range.group(3));
+        } catch (NumberFormatException e) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Content-Range is out of range.");
+            return;
+        }
+        if (total != upload.size || first % upload.chunkSize != 0 || first >= upload.size) {
+            sendError(response, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                    "Range must start on a chunk boundary of " + upload.chunkSize + " bytes within " + upload.size + ".");
+            return;
+        }
+        int index = (int) (first / upload.chunkSize);
+        long length = upload.chunkLength(index);
+        if (last - first + 1 != length) {
+            sendError(response, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                    "Chunk " + index + " must be " + length + " bytes.");
+            return;
+        }
+
+        // Positional writes: parallel chunks of the same upload never share a file position
+        long position = first;
+        long end = first + length;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (InputStream in = request.getInputStream()) {
+            while (position < end) {
+                int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end - position));
+                if (read < 0) {
+                    sendError(response, HttpServletResponse.SC_BAD_REQUEST,
+                            "Chunk " + index + " ended after " + (position - first) + " of " + length + " bytes.");
+                    return;
+                }
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    position += upload.channel.write(buffer, position);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Committed, deleted or expired while this chunk was arriving
+            if (upload.committing) {
+                sendError(response, HttpServletResponse.SC_CONFLICT, "Upload " + upload.id + " is already being committed.");
+            } else {
+                sendError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown upload " + upload.id + ".");
+            }
+            return;
+        }
+        upload.chunkReceived(index);
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Upload upload = lookup(request, response);
+        if (upload != null) {
+            sendJson(response, HttpServletResponse.SC_OK, upload.toJson());
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Upload upload = lookup(request, response);
+        if (upload != null && uploads.remove(upload.id, upload)) {
+            discard(upload);
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+
+    private void startUpload(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String fileName = request.getParameter("fileName");
+        long size;
+        int zoom;
+        int chunkSize;
+        try {
+            size = Long.parseLong(request.getParameter("size"));
+            zoom = Integer.parseInt(request.getParameter("zoom"));
+            String requestedChunkSize = request.getParameter("chunkSize");
+            chunkSize = requestedChunkSize == null ? DEFAULT_CHUNK_SIZE
+                    : Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, Integer.parseInt(requestedChunkSize)));
+        } catch (NumberFormatException e) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "size and zoom must be numbers.");
+            return;
+        }
+        if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST,
+                    "zoom must be between " + MIN_ZOOM + " and " + MAX_ZOOM + ".");
+            return;
+        }
+        if (fileName == null || fileName.isEmpty() || size <= 0) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "fileName and a positive size are required.");
+            return;
+        }
+        if (size > MAX_UPLOAD_SIZE) {
+            sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Uploads are limited to " + MAX_UPLOAD_SIZE + " bytes.");
+            return;
+        }
+        String outputMode = "pyramid".equals(request.getParameter("mode")) ? "pyramid" : "image";
+
+        if (!reserve(size)) {
+            response.setHeader("Retry-After", "60");
+            sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many uploads in progress, try again later.");
+            return;
+        }
+
+        String id = UUID.randomUUID().toString();
+        File file = new File(ImageUploadServlet.UPLOAD_DIR, id + ".part");
+        // Never let the client pick a path outside UPLOAD_DIR
+        String baseName = new File(fileName).getName();
+        if (baseName.isEmpty() || baseName.equals(".") || baseName.equals("..")) {
+            baseName = id;
+        }
+        Upload upload;
+        try {
+            upload = new Upload(id, baseName, size, chunkSize, zoom, outputMode,
+                    ImagePublisher.validClientId(request.getParameter("clientId")), file);
+        } catch (IOException e) {
+            release(size);
+            file.delete();
+            throw e;
+        }
+        uploads.put(id, upload);
+
+        response.setHeader("Location", request.getRequestURI().replaceAll("/+$", "") + "/" + id);
+        sendJson(response, HttpServletResponse.SC_CREATED, upload.toJson());
+    }
+
+    private void commitUpload(String id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Upload upload = uploads.get(id);
+        if (upload == null) {
+            sendError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown upload " + id + ".");
+            return;
+        }
+        if (!upload.isComplete()) {
+            sendJson(response, HttpServletResponse.SC_CONFLICT, upload.toJson());
+            return;
+        }
+        if (!uploads.remove(id, upload)) {
+            sendError(response, HttpServletResponse.SC_CONFLICT, "Upload " + id + " is already being committed.");
+            return;
+        }
+        upload.committing = true;
+
+        // Reading the file and publishing block on disk and the broker
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        try {
+            publisher.executor().execute(() -> completeCommit(asyncContext, upload));
+        } catch (RejectedExecutionException e) {
+            upload.committing = false;
+            uploads.put(id, upload);
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.getWriter().write("Server is shutting down.");
+            asyncContext.complete();
+        }
+    }
+
+    private void completeCommit(AsyncContext asyncContext, Upload upload) {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            upload.channel.close();
+            // Read from the upload's own file: another upload may commit under the same name meanwhile
+            byte[] imageBytes = Files.readAllBytes(upload.file.toPath());
+            File savedFile = new File(ImageUploadServlet.UPLOAD_DIR, upload.fileName);
+            Files.move(upload.file.toPath(), savedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            String correlationId = publisher.publish(imageBytes, upload.zoom, upload.outputMode, upload.clientId);
+            sendJson(response, HttpServletResponse.SC_OK, "{\"uploadId\":\"" + upload.id
+                    + "\",\"correlationId\":\"" + correlationId + "\",\"status\":\"published\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            try {
+                response.getWriter().write("Failed to publish message to JMS.");
+            } catch (IOException ignored) {
+                // client is gone
+            }
+        } finally {
+            // Only still there if the commit failed before the move
+            upload.file.delete();
+            release(upload.size);
+            asyncContext.complete();
+        }
+    }
+
+    private Upload lookup(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getPathInfo();
+        Matcher matcher = UPLOAD_PATH.matcher(path == null ? "" : path);
+        if (!matcher.matches() || matcher.group(2) != null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        Upload upload = uploads.get(matcher.group(1));
+        if (upload == null) {
+            sendError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown upload " + matcher.group(1) + ".");
+        }
+        return upload;
+    }
+
+    private void expireStaleUploads() {
+        long now = System.currentTimeMillis();
+        for (Upload upload : uploads.values()) {
+            if (now - upload.lastTouched > UPLOAD_EXPIRY_MILLIS && uploads.remove(upload.id, upload)) {
+                discard(upload);
+                System.out.println("Dropped abandoned upload " + upload.id + " (" + upload.fileName + ")");
+            }
+        }
+    }
+
+    private synchronized boolean reserve(long size) {
+        if (openUploads >= MAX_OPEN_UPLOADS || reservedBytes + size > MAX_RESERVED_BYTES) {
+            return false;
+        }
+        openUploads++;
+        reservedBytes += size;
+        return true;
+    }
+
+    private synchronized void release(long size) {
+        openUploads--;
+        reservedBytes -= size;
+    }
+
+    // For uploads already removed from the map, so this runs once per upload
+    private void discard(Upload upload) {
+        upload.closeQuietly();
+        upload.file.delete();
+        release(upload.size);
+    }
+
+    private static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("text/plain");
+        response.getWriter().write(message);
+    }
+
+    private static void sendJson(HttpServletResponse response, int status, String json) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(json);
+    }
+
+    // One upload in progress: where its bytes go and which chunks have arrived
+    private static final class Upload {
+        private final String id;
+        private final String fileName;
+        private final long size;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final int zoom;
+        private final String outputMode;
+        private final String clientId;
+        private final File file;
+        private final FileChannel channel;
+
+        private final BitSet received;
+        private volatile long lastTouched = System.currentTimeMillis();
+        // Set before the channel is closed for the commit, so a late chunk gets 409 rather than 404
+        private volatile boolean committing;
+
+        private Upload(String id, String fileName, long size, int chunkSize, int zoom, String outputMode,
+                String clientId, File file) throws IOException {
+            this.id = id;
+            this.fileName = fileName;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.zoom = zoom;
+            this.outputMode = outputMode;
+            this.clientId = clientId;
+            this.file = file;
+            this.received = new BitSet(chunkCount);
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            this.channel = raf.getChannel();
+        }
+
+        private long chunkLength(int index) {
+            return Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        private synchronized void chunkReceived(int index) {
+            received.set(index);
+            lastTouched = System.currentTimeMillis();
+        }
+
+        private synchronized boolean isComplete() {
+            return received.cardinality() == chunkCount;
+        }
+
+        private synchronized String toJson() {
+            StringBuilder json = new StringBuilder("{\"uploadId\":\"").append(id)
+                    .append("\",\"fileName\":\"").append(fileName.replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\",\"size\":").append(size)
+                    .append(",\"chunkSize\":").append(chunkSize)
+                    .append(",\"chunkCount\":").append(chunkCount)
+                    .append(",\"missing\":[");
+            for (int i = received.nextClearBit(0), n = 0; i < chunkCount; i = received.nextClearBit(i + 1), n++) {
+                json.append(n == 0 ? "" : ",").append(i);
+            }
+            return json.append("]}").toString();
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
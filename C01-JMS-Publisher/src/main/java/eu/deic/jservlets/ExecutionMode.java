@@ -0,0 +1,59 @@
+package eu.deic.jservlets;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How uploads are handed off after the request is parsed. {@link #VIRTUAL}
+ * starts one virtual thread per upload and needs a JDK 21+ runtime; on older runtimes it falls back to
+ * {@link #PLATFORM} so the same build keeps working on JDK 17.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public static ExecutionMode fromString(String value) {
+        return value == null || value.isEmpty() ? PLATFORM : valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Creates the executor for this mode. {@code platformThreads} sizes the
+     * pool in {@link #PLATFORM} mode and is ignored for virtual threads.
+     */
+    public ExecutorService newExecutor(int platformThreads, String threadName) {
+        if (this == VIRTUAL) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            System.out.println("Virtual threads need JDK 21+, running on " + Runtime.version()
+                    + "; falling back to " + platformThreads + " platform threads");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, threadName + "-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+        return Executors.newFixedThreadPool(platformThreads, factory);
+    }
+
+    /** True when {@link #newExecutor} hands out virtual threads on this runtime. */
+    public boolean runsOnVirtualThreads() {
+        return this == VIRTUAL && Runtime.version().feature() >= 21;
+    }
+
+    // Looked up reflectively so the module still compiles for JDK 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
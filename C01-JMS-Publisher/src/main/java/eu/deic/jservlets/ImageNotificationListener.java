@@ -1,5 +1,6 @@
  package eu.deic.jservlets;
 
+import jakarta.jms.BytesMessage;
 import jakarta.jms.Connection;
 import jakarta.jms.ConnectionFactory;
 import jakarta.jms.JMSException;
@@ -11,6 +12,11 @@ import jakarta.jms.Topic;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import jakarta.servlet.annotation.WebListener;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
 import org.apache.activemq.ActiveMQConnectionFactory;
 
 @WebListener
@@ -19,9 +25,11 @@ public class ImageNotificationListener implements ServletContextListener {
     private Connection connection;
     private Session session;
     private MessageConsumer consumer;
+    private MessageConsumer tileConsumer;
 
     private static final String BROKER_URL = "tcp://c02-activemq:61616";
     private static final String NOTIFICATION_TOPIC_NAME = "imageNotifications";
+    private static final String TILE_TOPIC_NAME = "imageTiles";
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
@@ -39,12 +47,19 @@ public class ImageNotificationListener implements ServletContextListener {
                 if (msg instanceof TextMessage) {
                     try {
                         String text = ((TextMessage) msg).getText();
-                        System.out.println("Received notification: " + text);
-                        if (text.startsWith("NewImage:")) {
-                            String idStr = text.substring("NewImage:".length());
-                            // Broadcast via WebSocket
-                            WebSocketServer.broadcast(idStr);
-                        }
+                        System.out.println("Received notifications: " + text.replace('\n', ' '));
+                        forwardNotifications(text);
+                    } catch (JMSException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+
+            tileConsumer = session.createConsumer(session.createTopic(TILE_TOPIC_NAME));
+            tileConsumer.setMessageListener(msg -> {
+                if (msg instanceof BytesMessage) {
+                    try {
+                        forwardTile((BytesMessage) msg);
                     } catch (JMSException e) {
                         e.printStackTrace();
                     }
@@ -56,11 +71,80 @@ public class ImageNotificationListener implements ServletContextListener {
         }
     }
 
+    /**
+     * Turns one batch from C03 (a notification per line) into a single text
+     * frame per page with a line per entry: the picture id for images of other
+     * clients, {@code done:<correlationId>:<pictureId>} for the page's own
+     * uploads, whose streamed tiles it swaps for the final image,
+     * {@code failed:<correlationId>} for its own uploads that failed, and
+     * {@code pyramid:<id>} for pyramids.
+     */
+    private static void forwardNotifications(String batch) {
+        // pictureId, then clientId and correlationId for streamed uploads
+        List<String[]> images = new ArrayList<>();
+        List<String> pyramids = new ArrayList<>();
+        // clientId and correlationId of streamed uploads that failed
+        List<String[]> failures = new ArrayList<>();
+        for (String line : batch.split("\n")) {
+            if (line.startsWith("NewImage:")) {
+                images.add(line.substring("NewImage:".length()).split(":", 3));
+            } else if (line.startsWith("Failed:")) {
+                failures.add(line.substring("Failed:".length()).split(":", 2));
+            } else if (line.startsWith("NewPyramid:")) {
+                pyramids.add("pyramid:" + line.substring("NewPyramid:".length()));
+            }
+        }
+
+        WebSocketServer.broadcast(clientId -> {
+            StringJoiner frame = new StringJoiner("\n");
+            for (String[] image : images) {
+                frame.add(image.length == 3 && image[1].equals(clientId) ? "done:" + image[2] + ":" + image[0] : image[0]);
+            }
+            pyramids.forEach(frame::add);
+            for (String[] failure : failures) {
+                if (failure.length == 2 && failure[0].equals(clientId)) {
+                    frame.add("failed:" + failure[1]);
+                }
+            }
+            return frame.length() == 0 ? null : frame.toString();
+        });
+    }
+
+    /**
+     * Sends one zoomed tile to the uploading client as a binary frame:
+     * a 4-byte header length, a JSON header with the tile's place in the
+     * image, then the encoded tile.
+     */
+    private static void forwardTile(BytesMessage msg) throws JMSException {
+        String clientId = msg.getStringProperty("ClientId");
+        if (clientId == null) {
+            return;
+        }
+        byte[] header = ("{\"correlationId\":\"" + msg.getJMSCorrelationID() + "\""
+                + ",\"index\":" + msg.getIntProperty("TileIndex")
+                + ",\"count\":" + msg.getIntProperty("TileCount")
+                + ",\"x\":" + msg.getIntProperty("X")
+                + ",\"y\":" + msg.getIntProperty("Y")
+                + ",\"imageWidth\":" + msg.getIntProperty("ImageWidth")
+                + ",\"imageHeight\":" + msg.getIntProperty("ImageHeight") + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] image = new byte[(int) msg.getBodyLength()];
+        msg.readBytes(image);
+
+        ByteBuffer frame = ByteBuffer.allocate(4 + header.length + image.length);
+        frame.putInt(header.length);
+        frame.put(header);
+        frame.put(image);
+        frame.flip();
+        WebSocketServer.sendToClient(clientId, frame);
+    }
+
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         System.out.println("ImageNotificationListener shutting down...");
         try {
             if (consumer != null) consumer.close();
+            if (tileConsumer != null) tileConsumer.close();
             if (session != null) session.close();
             if (connection != null) connection.close();
         } catch (JMSException e) {
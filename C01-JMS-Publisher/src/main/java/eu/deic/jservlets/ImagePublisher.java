@@ -0,0 +1,117 @@
+package eu.deic.jservlets;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import jakarta.jms.*;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+/**
+ * Publishes uploaded images to the zoom topic, for the single-request and the
+ * chunked upload servlets alike. Each servlet gets its own executor to finish
+ * uploads off the Tomcat request threads; the limit on broker connections is
+ * shared.
+ */
+class ImagePublisher {
+//    private static final String BROKER_URL = "tcp://localhost:61616";
+    private static final String BROKER_URL = "tcp://c02-activemq:61616";
+    private static final String TOPIC_NAME = "imageTopic";
+
+    // Jobs at or below this output size get the highest JMS priority,
+    // every doubling above it drops one level
+    private static final long PRIORITY_BASE_COST = 256 * 1024;
+
+    // PLATFORM or VIRTUAL (JDK 21+)
+    private static final String EXECUTION_MODE = System.getenv("EXECUTION_MODE");
+    private static final int PUBLISH_THREADS = 16;
+    private static final int MAX_CONCURRENT_PUBLISHES = 32;
+
+    private static final Semaphore BROKER_CONNECTIONS = new Semaphore(MAX_CONCURRENT_PUBLISHES);
+
+    // Browser-generated id the zoomed tiles are streamed back to, see WebSocketServer
+    private static final Pattern CLIENT_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    private final ExecutorService executor;
+
+    ImagePublisher(String threadName) {
+        ExecutionMode mode = ExecutionMode.fromString(EXECUTION_MODE);
+        executor = mode.newExecutor(PUBLISH_THREADS, threadName);
+        System.out.println(threadName + " using " + mode + " execution"
+                + (mode.runsOnVirtualThreads() ? " (virtual threads)" : ""));
+    }
+
+    /** Executor for the blocking part of an upload (disk, broker). */
+    ExecutorService executor() {
+        return executor;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Publishes one upload and returns the correlation id its tiles and result
+     * notification will carry. {@code clientId} may be null (no streaming).
+     */
+    String publish(byte[] imageBytes, int zoomLevel, String outputMode, String clientId)
+            throws JMSException, InterruptedException {
+        String encodedImage = Base64.getEncoder().encodeToString(imageBytes);
+        String correlationId = UUID.randomUUID().toString();
+        BROKER_CONNECTIONS.acquire();
+        try {
+            publishToJMS(encodedImage, zoomLevel, imageBytes.length, outputMode, validClientId(clientId), correlationId);
+        } finally {
+            BROKER_CONNECTIONS.release();
+        }
+        return correlationId;
+    }
+
+    static String validClientId(String clientId) {
+        return clientId != null && CLIENT_ID.matcher(clientId).matches() ? clientId : null;
+    }
+
+    private void publishToJMS(String imageBase64, int zoomLevel, long fileSize, String outputMode,
+            String clientId, String correlationId) throws JMSException {
+        long estimatedCost = estimateCost(fileSize, zoomLevel);
+        int priority = schedulingPriority(estimatedCost);
+
+        ConnectionFactory factory = new ActiveMQConnectionFactory(BROKER_URL);
+        Connection connection = factory.createConnection();
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Topic topic = session.createTopic(TOPIC_NAME);
+
+        MessageProducer producer = session.createProducer(topic);
+        TextMessage message = session.createTextMessage();
+        message.setText("Image=" + imageBase64 + ";Zoom=" + zoomLevel);
+        message.setLongProperty("FileSize", fileSize);
+        message.setIntProperty("ZoomLevel", zoomLevel);
+        message.setLongProperty("EstimatedCost", estimatedCost);
+        message.setStringProperty("OutputMode", outputMode);
+        message.setJMSCorrelationID(correlationId);
+        if (clientId != null) {
+            message.setStringProperty("ClientId", clientId);
+        }
+        producer.send(message, DeliveryMode.PERSISTENT, priority, Message.DEFAULT_TIME_TO_LIVE);
+
+        System.out.println("Message sent to topic: " + TOPIC_NAME + " (priority " + priority + ", cost " + estimatedCost + ")");
+
+        producer.close();
+        session.close();
+        connection.close();
+    }
+
+    // Output bytes grow with the square of the zoom factor
+    static long estimateCost(long fileSize, int zoomLevel) {
+        return fileSize * zoomLevel * zoomLevel / 10000;
+    }
+
+    // 9 for small jobs down to 0 for the largest ones
+    static int schedulingPriority(long estimatedCost) {
+        long doublings = 64 - Long.numberOfLeadingZeros(estimatedCost / PRIORITY_BASE_COST);
+        return (int) Math.max(0, 9 - doublings);
+    }
+}
@@ -1,7 +1,6 @@
 package eu.deic.jservlets;
 
-import org.apache.activemq.ActiveMQConnectionFactory;
-import jakarta.jms.*;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.MultipartConfig;
 import jakarta.servlet.annotation.WebServlet;
@@ -13,16 +12,19 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Base64;
+import java.util.concurrent.RejectedExecutionException;
 
-@WebServlet("/ImageUploadServlet")
-@MultipartConfig
+@WebServlet(value = "/ImageUploadServlet", asyncSupported = true)
+// Parts above 1MB are spooled to disk by Tomcat instead of being held in memory
+@MultipartConfig(fileSizeThreshold = 1024 * 1024,
+        maxFileSize = ChunkedUploadServlet.MAX_UPLOAD_SIZE,
+        maxRequestSize = ChunkedUploadServlet.MAX_UPLOAD_SIZE + 64 * 1024)
 public class ImageUploadServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
-//    private static final String BROKER_URL = "tcp://localhost:61616";
-     private static final String BROKER_URL = "tcp://c02-activemq:61616";
-    private static final String TOPIC_NAME = "imageTopic";
-    private static final String UPLOAD_DIR = "/opt/uploaded-images";
+    static final String UPLOAD_DIR = "/opt/uploaded-images";
+
+    // Uploads are finished off the Tomcat request thread
+    private ImagePublisher publisher;
 
     @Override
     public void init() throws ServletException {
@@ -30,6 +32,14 @@ public class ImageUploadServlet extends HttpServlet {
         if (!uploadDir.exists()) {
             uploadDir.mkdirs();
         }
+        publisher = new ImagePublisher("upload-publisher");
+    }
+
+    @Override
+    public void destroy() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
     }
 
     @Override
@@ -77,6 +87,12 @@ public class ImageUploadServlet extends HttpServlet {
             "        border: 1px solid #ddd;" +
             "        border-radius: 4px;" +
             "    }" +
+            "    select {" +
+            "        width: 100%;" +
+            "        padding: 0.5rem;" +
+            "        border: 1px solid #ddd;" +
+            "        border-radius: 4px;" +
+            "    }" +
             "    input[type='range'] {" +
             "        width: 100%;" +
             "        margin: 1rem 0;" +
@@ -100,12 +116,20 @@ public class ImageUploadServlet extends HttpServlet {
             "    button:hover {" +
             "        background-color: #45a049;" +
             "    }" +
+            "    progress {" +
+            "        width: 100%;" +
+            "        margin-top: 1rem;" +
+            "    }" +
+            "    .upload-status {" +
+            "        text-align: center;" +
+            "        color: #666;" +
+            "    }" +
             "</style>" +
             "</head>" +
             "<body>" +
             "<div class='upload-container'>" +
             "    <h1>Image Upload</h1>" +
-            "    <form action='ImageUploadServlet' method='POST' enctype='multipart/form-data'>" +
+            "    <form id='uploadForm' action='ImageUploadServlet' method='POST' enctype='multipart/form-data'>" +
             "        <div class='form-group'>" +
             "            <label for='file'>Choose an image:</label>" +
             "            <input type='file' name='file' id='file' accept='image/*' required>" +
@@ -115,13 +139,111 @@ public class ImageUploadServlet extends HttpServlet {
             "            <div class='zoom-value'><span id='zoomValue'>50</span>%</div>" +
             "            <input type='range' name='zoom' id='zoom' min='1' max='200' value='50' oninput='updateZoomValue(this.value)'>" +
             "        </div>" +
+            "        <div class='form-group'>" +
+            "            <label for='mode'>Output:</label>" +
+            "            <select name='mode' id='mode'>" +
+            "                <option value='image'>Single image at this zoom</option>" +
+            "                <option value='pyramid'>Deep-zoom tiles (any zoom up to this one)</option>" +
+            "            </select>" +
+            "        </div>" +
+            "        <input type='hidden' name='clientId' id='clientId'>" +
             "        <button type='submit'>Upload</button>" +
+            "        <progress id='progress' value='0' max='1' hidden></progress>" +
+            "        <div class='upload-status' id='uploadStatus'></div>" +
             "    </form>" +
             "</div>" +
             "<script>" +
             "function updateZoomValue(val) {" +
             "    document.getElementById('zoomValue').textContent = val;" +
             "}" +
+            // Same id as ws-test.html connects with, so the zoomed tiles stream to this browser
+            "function clientId() {" +
+            "    var id = localStorage.getItem('clientId');" +
+            "    if (!id) {" +
+            "        id = window.crypto && crypto.randomUUID ? crypto.randomUUID()" +
+            "            : Date.now().toString(36) + '-' + Math.random().toString(36).slice(2);" +
+            "        localStorage.setItem('clientId', id);" +
+            "    }" +
+            "    return id;" +
+            "}" +
+            "document.getElementById('clientId').value = clientId();" +
+            // Chunked, resumable upload through /uploads; without fetch the form posts as a whole
+            "var CHUNK_SIZE = 1024 * 1024;" +
+            "var PARALLEL_CHUNKS = 4;" +
+            "var MAX_ROUNDS = 5;" +
+            "document.getElementById('uploadForm').addEventListener('submit', function (e) {" +
+            "    if (!window.fetch || !window.Blob || !Blob.prototype.slice) return;" +
+            "    e.preventDefault();" +
+            "    chunkedUpload().then(function () {" +
+            "        window.location = 'ws-test.html';" +
+            "    }).catch(function (err) {" +
+            "        document.getElementById('uploadStatus').textContent = 'Upload failed: ' + err.message + '. Submit again to resume.';" +
+            "    });" +
+            "});" +
+            "function json(r) {" +
+            "    if (!r.ok) throw new Error('server returned ' + r.status);" +
+            "    return r.json();" +
+            "}" +
+            "function showProgress(done, total) {" +
+            "    var bar = document.getElementById('progress');" +
+            "    bar.hidden = false;" +
+            "    bar.max = total;" +
+            "    bar.value = done;" +
+            "    document.getElementById('uploadStatus').textContent = done + ' / ' + total + ' chunks';" +
+            "}" +
+            "function chunkedUpload() {" +
+            "    var file = document.getElementById('file').files[0];" +
+            "    var zoom = document.getElementById('zoom').value;" +
+            "    var mode = document.getElementById('mode').value;" +
+            // An upload of the same file and settings that was cut off is resumed, not restarted
+            "    var key = 'upload:' + [file.name, file.size, file.lastModified, zoom, mode].join(':');" +
+            "    var savedId = localStorage.getItem(key);" +
+            "    var existing = savedId" +
+            "        ? fetch('uploads/' + savedId).then(function (r) { return r.ok ? r.json() : null; })" +
+            "        : Promise.resolve(null);" +
+            "    return existing.then(function (upload) {" +
+            "        if (upload) return upload;" +
+            "        var params = new URLSearchParams({ fileName: file.name, size: file.size, zoom: zoom, mode: mode, chunkSize: CHUNK_SIZE, clientId: clientId() });" +
+            "        return fetch('uploads?' + params, { method: 'POST' }).then(json);" +
+            "    }).then(function (upload) {" +
+            "        localStorage.setItem(key, upload.uploadId);" +
+            "        return sendChunks(file, upload, 1).then(function () {" +
+            "            return fetch('uploads/' + upload.uploadId + '/commit', { method: 'POST' }).then(json);" +
+            "        }).then(function () {" +
+            "            localStorage.removeItem(key);" +
+            "        });" +
+            "    });" +
+            "}" +
+            // Sends the missing chunks, PARALLEL_CHUNKS at a time, then asks the server what is still missing
+            "function sendChunks(file, upload, round) {" +
+            "    var queue = upload.missing.slice();" +
+            "    var done = upload.chunkCount - queue.length;" +
+            "    showProgress(done, upload.chunkCount);" +
+            "    function next() {" +
+            "        if (queue.length === 0) return Promise.resolve();" +
+            "        var index = queue.shift();" +
+            "        var first = index * upload.chunkSize;" +
+            "        var last = Math.min(first + upload.chunkSize, file.size) - 1;" +
+            "        return fetch('uploads/' + upload.uploadId, {" +
+            "            method: 'PUT'," +
+            "            headers: { 'Content-Range': 'bytes ' + first + '-' + last + '/' + file.size }," +
+            "            body: file.slice(first, last + 1)" +
+            "        }).then(function (r) {" +
+            "            if (r.ok) showProgress(++done, upload.chunkCount);" +
+            "        }, function () {" +
+            "            /* retried in the next round */" +
+            "        }).then(next);" +
+            "    }" +
+            "    var lanes = [];" +
+            "    for (var i = 0; i < PARALLEL_CHUNKS; i++) lanes.push(next());" +
+            "    return Promise.all(lanes).then(function () {" +
+            "        return fetch('uploads/' + upload.uploadId).then(json);" +
+            "    }).then(function (status) {" +
+            "        if (status.missing.length === 0) return;" +
+            "        if (round >= MAX_ROUNDS) throw new Error(status.missing.length + ' chunks could not be sent');" +
+            "        return sendChunks(file, status, round + 1);" +
+            "    });" +
+            "}" +
             "</script>" +
             "</body>" +
             "</html>"
@@ -133,6 +255,8 @@ public class ImageUploadServlet extends HttpServlet {
             throws ServletException, IOException {
         Part filePart = request.getPart("file");
         String zoomLevel = request.getParameter("zoom");
+        String outputMode = "pyramid".equals(request.getParameter("mode")) ? "pyramid" : "image";
+        String clientId = request.getParameter("clientId");
 
         if (filePart == null || zoomLevel == null || zoomLevel.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -140,53 +264,63 @@ public class ImageUploadServlet extends HttpServlet {
             return;
         }
 
-        String fileName = filePart.getSubmittedFileName();
-        File savedFile = new File(UPLOAD_DIR, fileName);
-
-        try (InputStream fileContent = filePart.getInputStream();
-             FileOutputStream fos = new FileOutputStream(savedFile)) {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fileContent.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-            }
-        }
-
-        byte[] imageBytes;
-        try (InputStream fileContent = filePart.getInputStream()) {
-            imageBytes = fileContent.readAllBytes();
+        int zoom;
+        try {
+            zoom = Integer.parseInt(zoomLevel);
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write("Zoom level must be a number.");
+            return;
         }
-        String encodedImage = Base64.getEncoder().encodeToString(imageBytes);
 
+        // Saving, encoding and publishing block on disk and the broker, so they
+        // run on the upload executor and the request thread goes back to Tomcat
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
         try {
-            publishToJMS(encodedImage, zoomLevel);
-            // Redirect to ws-test.html after successful upload and message publishing
-            response.sendRedirect("ws-test.html");
-        } catch (Exception e) {
-            e.printStackTrace();
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            response.getWriter().write("Failed to publish message to JMS.");
+            publisher.executor().execute(() -> completeUpload(asyncContext, filePart, zoom, outputMode, clientId));
+        } catch (RejectedExecutionException e) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.getWriter().write("Server is shutting down.");
+            asyncContext.complete();
         }
     }
 
+    private void completeUpload(AsyncContext asyncContext, Part filePart, int zoom, String outputMode,
+            String clientId) {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            String fileName = filePart.getSubmittedFileName();
+            File savedFile = new File(UPLOAD_DIR, fileName);
 
-    private void publishToJMS(String imageBase64, String zoomLevel) throws JMSException {
-        ConnectionFactory factory = new ActiveMQConnectionFactory(BROKER_URL);
-        Connection connection = factory.createConnection();
-        connection.start();
-
-        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-        Topic topic = session.createTopic(TOPIC_NAME);
-
-        MessageProducer producer = session.createProducer(topic);
-        TextMessage message = session.createTextMessage();
-        message.setText("Image=" + imageBase64 + ";Zoom=" + zoomLevel);
-        producer.send(message);
+            try (InputStream fileContent = filePart.getInputStream();
+                 FileOutputStream fos = new FileOutputStream(savedFile)) {
+                byte[] buffer = new byte[1024];
+                int bytesRead;
+                while ((bytesRead = fileContent.read(buffer)) != -1) {
+                    fos.write(buffer, 0, bytesRead);
+                }
+            }
 
-        System.out.println("Message sent to topic: " + TOPIC_NAME);
+            byte[] imageBytes;
+            try (InputStream fileContent = filePart.getInputStream()) {
+                imageBytes = fileContent.readAllBytes();
+            }
 
-        producer.close();
-        session.close();
-        connection.close();
+            try {
+                publisher.publish(imageBytes, zoom, outputMode, clientId);
+                // Redirect to ws-test.html after successful upload and message publishing
+                response.sendRedirect("ws-test.html");
+            } catch (Exception e) {
+                e.printStackTrace();
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                response.getWriter().write("Failed to publish message to JMS.");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            asyncContext.complete();
+        }
     }
 }
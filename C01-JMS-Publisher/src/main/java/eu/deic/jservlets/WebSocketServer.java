@@ -1,22 +1,38 @@
 package eu.deic.jservlets;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import jakarta.websocket.OnClose;
 import jakarta.websocket.OnMessage;
 import jakarta.websocket.OnOpen;
 import jakarta.websocket.Session;
 import jakarta.websocket.server.ServerEndpoint;
 
+/**
+ * Pushes results to the browsers. A page connects with {@code ?clientId=...}
+ * (the id it also sends with its uploads), so the tiles of its own images can
+ * be sent to it alone while they are still being zoomed.
+ */
 @ServerEndpoint("/ws")
 public class WebSocketServer {
 
+    private static final String CLIENT_ID = "clientId";
+
     private static final Set<Session> sessions = Collections.synchronizedSet(new HashSet<>());
 
     @OnOpen
     public void onOpen(Session session) {
+        List<String> clientId = session.getRequestParameterMap().get(CLIENT_ID);
+        if (clientId != null && !clientId.isEmpty() && ImagePublisher.validClientId(clientId.get(0)) != null) {
+            session.getUserProperties().put(CLIENT_ID, clientId.get(0));
+        }
         sessions.add(session);
         System.out.println("WebSocket opened: " + session.getId());
     }
@@ -32,12 +48,29 @@ public class WebSocketServer {
         System.out.println("Message from " + session.getId() + ": " + message);
     }
 
-    public static void broadcast(String msg) {
+    /**
+     * Sends every page the one frame {@code frameFor} builds for its client id
+     * (null for pages that did not send one). Pages of the same client share
+     * the frame; a null frame sends nothing.
+     */
+    public static void broadcast(Function<String, String> frameFor) {
+        Map<String, String> frames = new HashMap<>();
         synchronized (sessions) {
             for (Session s : sessions) {
-                if (s.isOpen()) {
+                String frame = frames.computeIfAbsent((String) s.getUserProperties().get(CLIENT_ID), frameFor);
+                if (frame != null) {
+                    sendText(s, frame);
+                }
+            }
+        }
+    }
+
+    public static void sendToClient(String clientId, ByteBuffer frame) {
+        synchronized (sessions) {
+            for (Session s : sessions) {
+                if (clientId.equals(s.getUserProperties().get(CLIENT_ID)) && s.isOpen()) {
                     try {
-                        s.getBasicRemote().sendText(msg);
+                        s.getBasicRemote().sendBinary(frame.duplicate());
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -45,4 +78,14 @@ public class WebSocketServer {
             }
         }
     }
+
+    private static void sendText(Session s, String msg) {
+        if (s.isOpen()) {
+            try {
+                s.getBasicRemote().sendText(msg);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package eu.deic.mdb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How pipeline stages are run. {@link #VIRTUAL} starts one virtual thread per
+ * stage and needs a JDK 21+ runtime; on older runtimes it falls back to
+ * {@link #PLATFORM} so the same build keeps working on JDK 17.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionMode.class.getName());
+
+    public static ExecutionMode fromString(String value) {
+        return value == null || value.isEmpty() ? PLATFORM : valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Creates the executor for this mode. {@code platformThreads} sizes the
+     * pool in {@link #PLATFORM} mode and is ignored for virtual threads.
+     */
+    public ExecutorService newExecutor(int platformThreads, String threadName) {
+        if (this == VIRTUAL) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            LOGGER.warning("Virtual threads need JDK 21+, running on " + Runtime.version()
+                    + "; falling back to " + platformThreads + " platform threads");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> new Thread(r, threadName + "-" + counter.getAndIncrement());
+        return Executors.newFixedThreadPool(platformThreads, factory);
+    }
+
+    /** True when {@link #newExecutor} hands out virtual threads on this runtime. */
+    public boolean runsOnVirtualThreads() {
+        return this == VIRTUAL && Runtime.version().feature() >= 21;
+    }
+
+    // Looked up reflectively so the module still compiles for JDK 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            LOGGER.log(Level.WARNING, "Could not create virtual thread executor", e);
+            return null;
+        }
+    }
+}
@@ -5,15 +5,21 @@ import jakarta.jms.*;
 
 import eu.deic.rmi.ZoomService;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.imageio.ImageIO;
 import java.util.logging.Level;
@@ -29,6 +35,13 @@ public class ImageProcessorConsumer {
     private static final String BROKER_URL = "tcp://c02-activemq:61616"; 
     private static final String TOPIC_NAME = "imageTopic";
     private static final String NOTIFICATION_TOPIC_NAME = "imageNotifications";
+    // Zoomed tiles on their way to the uploading browser, best effort
+    private static final String TILE_TOPIC_NAME = "imageTiles";
+    private static final long TILE_TIME_TO_LIVE_MS = 60000;
+    private static final int MAX_QUEUED_TILES = 1000;
+    // Finished images and pyramids are announced in one message per window
+    private static final long NOTIFY_BATCH_WINDOW_MS = Long.parseLong(getEnv("NOTIFY_BATCH_WINDOW_MS", "250"));
+    private static final int NOTIFY_BATCH_MAX = Integer.parseInt(getEnv("NOTIFY_BATCH_MAX", "500"));
 
     // RMI Servers
     private static final String RMI_SERVER_C04 = "c04-rmi-server";
@@ -36,19 +49,76 @@ public class ImageProcessorConsumer {
     private static final String RMI_SERVER_C05 = "c05-rmi-server";
     private static final int C05_PORT = 1100;
 
+    // Same zoom contract over the binary NIO transport; "rmi" disables it
+    private static final boolean ZOOM_TRANSPORT_NIO = "nio".equalsIgnoreCase(getEnv("ZOOM_TRANSPORT", "nio"));
+    private static final NioZoomClient C04_NIO = new NioZoomClient(RMI_SERVER_C04,
+            Integer.parseInt(getEnv("NIO_PORT_C04", "1199")), Long.parseLong(getEnv("NIO_TIMEOUT_MS", "120000")));
+    private static final NioZoomClient C05_NIO = new NioZoomClient(RMI_SERVER_C05,
+            Integer.parseInt(getEnv("NIO_PORT_C05", "1200")), Long.parseLong(getEnv("NIO_TIMEOUT_MS", "120000")));
+
     // C06 upload endpoint
     private static final String C06_UPLOAD_URL = "http://c06-nodejs:3000/api/bmp/upload";
+    private static final String C06_PYRAMID_URL = "http://c06-nodejs:3000/api/pyramids";
+
+    // Deep-zoom output
+    private static final int PYRAMID_TILE_SIZE = Integer.parseInt(getEnv("PYRAMID_TILE_SIZE", "256"));
+
+    // Scheduling of zoom jobs
+    private static final ZoomJobScheduler.Policy SCHEDULER_POLICY =
+            ZoomJobScheduler.Policy.valueOf(getEnv("SCHEDULER_POLICY", "WEIGHTED_FAIR"));
+    private static final int SCHEDULER_WORKERS = Integer.parseInt(getEnv("SCHEDULER_WORKERS", "4"));
+    private static final long SCHEDULER_COST_PER_MS = Long.parseLong(getEnv("SCHEDULER_COST_PER_MS", "50000"));
+    private static final int TILE_ROWS = Integer.parseInt(getEnv("TILE_ROWS", "256"));
+    // Jobs decoded and in the pipeline; beyond this the listener stops taking messages,
+    // so uploads wait in the broker rather than on this heap
+    private static final int MAX_ADMITTED_JOBS = Integer.parseInt(getEnv("MAX_ADMITTED_JOBS", "16"));
+    private static final Semaphore ADMITTED_JOBS = new Semaphore(MAX_ADMITTED_JOBS);
+
+    // Execution: PLATFORM uses SCHEDULER_WORKERS threads, VIRTUAL one virtual thread per stage
+    private static final ExecutionMode EXECUTION_MODE = ExecutionMode.fromString(getEnv("EXECUTION_MODE", "PLATFORM"));
+
+    // The resources that are actually limited, whatever the number of threads
+    private static final int RMI_MAX_CALLS_PER_SERVER = Integer.parseInt(getEnv("RMI_MAX_CALLS_PER_SERVER", "16"));
+    private static final int CPU_PERMITS = Runtime.getRuntime().availableProcessors();
+    private static final Semaphore C04_CALLS = new Semaphore(RMI_MAX_CALLS_PER_SERVER);
+    private static final Semaphore C05_CALLS = new Semaphore(RMI_MAX_CALLS_PER_SERVER);
+    private static final Semaphore C06_UPLOADS = new Semaphore(Integer.parseInt(getEnv("C06_MAX_UPLOADS", "4")));
+    private static final Semaphore CPU_STAGES = new Semaphore(CPU_PERMITS);
+    // Virtual threads admit no more stages than can hold a permit, so stages still
+    // start in scheduler order rather than racing for the (unfair) semaphores above
+    private static final int MAX_STAGES_IN_FLIGHT = CPU_PERMITS + 2 * RMI_MAX_CALLS_PER_SERVER;
+
+    // PNG encoding: the final images get the configured level/filter, tiles sent to C04/C05 a cheap one
+    private static final ExecutorService PNG_ENCODER_POOL = Executors.newFixedThreadPool(
+            Integer.parseInt(getEnv("PNG_ENCODER_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+            r -> {
+                Thread t = new Thread(r, "png-encoder");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final ParallelPngEncoder OUTPUT_PNG = new ParallelPngEncoder(
+            Integer.parseInt(getEnv("PNG_COMPRESSION_LEVEL", "4")),
+            ParallelPngEncoder.Filter.fromString(getEnv("PNG_FILTER", "ADAPTIVE")), PNG_ENCODER_POOL);
+    private static final ParallelPngEncoder INTERNAL_PNG = new ParallelPngEncoder(
+            Integer.parseInt(getEnv("PNG_INTERNAL_COMPRESSION_LEVEL", "1")),
+            ParallelPngEncoder.Filter.fromString(getEnv("PNG_INTERNAL_FILTER", "SUB")), PNG_ENCODER_POOL);
 
     // JMS session
     private static Session session;
     private static Connection connection;
+    private static TilePublisher tiles;
+    private static NotificationBatcher notifications;
+
+    private static ZoomJobScheduler scheduler;
 
     public static void main(String[] args) {
         final AtomicReference<Connection> connectionRef = new AtomicReference<>();
         final AtomicReference<Session> sessionRef = new AtomicReference<>();
 
         try {
-            ConnectionFactory factory = new ActiveMQConnectionFactory(BROKER_URL);
+            ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(BROKER_URL);
+            // Messages the broker pushes ahead are buffered here too, keep that to one admission's worth
+            factory.getPrefetchPolicy().setTopicPrefetch(MAX_ADMITTED_JOBS);
             connection = factory.createConnection();
             connectionRef.set(connection);
             connection.start();
@@ -56,6 +126,14 @@ public class ImageProcessorConsumer {
             session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             sessionRef.set(session);
 
+            tiles = new TilePublisher(connection, TILE_TOPIC_NAME, TILE_TIME_TO_LIVE_MS, MAX_QUEUED_TILES);
+
+            notifications = new NotificationBatcher(connection, NOTIFICATION_TOPIC_NAME,
+                    NOTIFY_BATCH_WINDOW_MS, NOTIFY_BATCH_MAX);
+
+            scheduler = new ZoomJobScheduler(SCHEDULER_POLICY, EXECUTION_MODE, SCHEDULER_WORKERS,
+                    MAX_STAGES_IN_FLIGHT, SCHEDULER_COST_PER_MS);
+
             Topic topic = session.createTopic(TOPIC_NAME);
             MessageConsumer consumer = session.createConsumer(topic);
 
@@ -63,6 +141,14 @@ public class ImageProcessorConsumer {
 
             consumer.setMessageListener(message -> {
                 if (message instanceof TextMessage) {
+                    // Blocks the session's delivery until a running job finishes
+                    try {
+                        ADMITTED_JOBS.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    boolean scheduled = false;
                     try {
                         TextMessage textMessage = (TextMessage) message;
                         String content = textMessage.getText();
@@ -78,12 +164,35 @@ public class ImageProcessorConsumer {
                         int zoomLevel = Integer.parseInt(parts[1].substring("Zoom=".length()));
 
                         byte[] imageData = Base64.getDecoder().decode(imageBase64);
-                        processImage(imageData, zoomLevel);
+
+                        // Cost hint from C01; older publishers do not set it
+                        long estimatedCost = message.propertyExists("EstimatedCost")
+                                ? message.getLongProperty("EstimatedCost")
+                                : (long) imageData.length * zoomLevel * zoomLevel / 10000;
+
+                        // "pyramid" builds a deep-zoom tile pyramid instead of one output image
+                        TilePyramid pyramid = "pyramid".equals(message.getStringProperty("OutputMode"))
+                                ? new TilePyramid(PYRAMID_TILE_SIZE)
+                                : null;
+
+                        ZoomJob job = new ZoomJob(imageData, zoomLevel, message.getJMSPriority(), estimatedCost, pyramid);
+                        job.setOnFinished(ADMITTED_JOBS::release);
+                        String clientId = message.getStringProperty("ClientId");
+                        if (clientId != null) {
+                            job.setClient(clientId, message.getJMSCorrelationID());
+                        }
+                        LOGGER.info("Scheduling " + job + ", queued stages: " + scheduler.getQueuedStages());
+                        scheduler.schedule(job, ZoomJobScheduler.SPLIT_STAGE, () -> splitJob(job));
+                        scheduled = true;
 
                     } catch (JMSException e) {
                         LOGGER.log(Level.SEVERE, "JMS error", e);
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Error processing message", e);
+                    } finally {
+                        if (!scheduled) {
+                            ADMITTED_JOBS.release();
+                        }
                     }
                 } else {
                     LOGGER.severe("Unsupported message type received.");
@@ -96,6 +205,12 @@ public class ImageProcessorConsumer {
             
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
+                    if (scheduler != null) scheduler.shutdown();
+                    PNG_ENCODER_POOL.shutdown();
+                    C04_NIO.close();
+                    C05_NIO.close();
+                    if (tiles != null) tiles.close();
+                    if (notifications != null) notifications.close();
                     if (sessionRef.get() != null) sessionRef.get().close();
                     if (connectionRef.get() != null) connectionRef.get().close();
                 } catch (JMSException e) {
@@ -105,9 +220,10 @@ public class ImageProcessorConsumer {
         }
     }
 
-    private static void processImage(byte[] imageData, int zoomLevel) {
+    private static void splitJob(ZoomJob job) {
         try {
-            BufferedImage original = ImageIO.read(new ByteArrayInputStream(imageData));
+            byte[] imageData = job.takeImageData();
+            BufferedImage original = withPermit(CPU_STAGES, () -> ImageIO.read(new ByteArrayInputStream(imageData)));
             if (original == null) {
                 throw new IOException("Failed to decode BMP image. Possibly corrupt.");
             }
@@ -117,49 +233,262 @@ public class ImageProcessorConsumer {
             int w = original.getWidth();
             int h = original.getHeight();
 
-            // Split
-            BufferedImage topHalf = original.getSubimage(0, 0, w, h / 2);
-            BufferedImage bottomHalf = original.getSubimage(0, h / 2, w, h - h / 2);
+            // Split into horizontal strips, at least one per RMI server
+            int tileCount = Math.min(h, Math.max(2, (h + TILE_ROWS - 1) / TILE_ROWS));
+            BufferedImage[] tiles = new BufferedImage[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                int y0 = h * i / tileCount;
+                int y1 = h * (i + 1) / tileCount;
+                tiles[i] = original.getSubimage(0, y0, w, y1 - y0);
+            }
+            job.setTiles(tiles);
 
-            byte[] topBytes = bufferedImageToBytes(topHalf, "png");
-            byte[] bottomBytes = bufferedImageToBytes(bottomHalf, "png");
+            for (int i = 0; i < tileCount; i++) {
+                final int tileIndex = i;
+                scheduler.schedule(job, tileIndex, () -> zoomTile(job, tileIndex));
+            }
+        } catch (Exception e) {
+            if (job.fail()) {
+                failJob(job, e);
+            }
+        }
+    }
 
-            // RMI
-            ZoomService zc04 = lookupZoomService(RMI_SERVER_C04, C04_PORT);
-            ZoomService zc05 = lookupZoomService(RMI_SERVER_C05, C05_PORT);
+    private static void zoomTile(ZoomJob job, int tileIndex) {
+        try {
+            byte[] tileBytes = withPermit(CPU_STAGES,
+                    () -> INTERNAL_PNG.encode(job.getTileSource(tileIndex)));
 
-            byte[] processedTop = zc04.zoomImage(topBytes, zoomLevel);
-            byte[] processedBottom = zc05.zoomImage(bottomBytes, zoomLevel);
+            // RMI, tiles alternate between C04 and C05
+            boolean onC04 = tileIndex % 2 == 0;
+            byte[] processed = withPermit(onC04 ? C04_CALLS : C05_CALLS,
+                    () -> callZoomService(onC04, tileBytes, job.getZoomLevel()));
 
-            BufferedImage ptImg = ImageIO.read(new ByteArrayInputStream(processedTop));
-            BufferedImage pbImg = ImageIO.read(new ByteArrayInputStream(processedBottom));
+            // The browser can draw this strip now, long before the whole image is stitched
+            if (job.isProgressive()) {
+                tiles.publish(job, tileIndex, processed);
+            }
 
-            if (ptImg == null || pbImg == null) {
+            BufferedImage processedImg = withPermit(CPU_STAGES, () -> ImageIO.read(new ByteArrayInputStream(processed)));
+            if (processedImg == null) {
                 throw new IOException("Failed to decode processed images.");
             }
 
-            // Assemble img
-            int newHeight = ptImg.getHeight() + pbImg.getHeight();
-            BufferedImage combined = new BufferedImage(ptImg.getWidth(), newHeight, BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2d = combined.createGraphics();
-            g2d.drawImage(ptImg, 0, 0, null);
-            g2d.drawImage(pbImg, 0, ptImg.getHeight(), null);
-            g2d.dispose();
+            if (job.completeTile(tileIndex, processedImg)) {
+                assembleAndSend(job);
+            }
+        } catch (Exception e) {
+            if (job.fail()) {
+                failJob(job, e);
+            }
+        }
+    }
 
-            byte[] finalBytes = bufferedImageToBytes(combined, "png");
+    private static void failJob(ZoomJob job, Exception e) {
+        LOGGER.log(Level.SEVERE, "Error processing image", e);
+        if (job.getPyramid() != null) {
+            // Releases the level chain, which was waiting for this level 0
+            failPyramid(job, e);
+            return;
+        }
+        if (job.isProgressive()) {
+            notifications.failed(job.getClientId(), job.getCorrelationId());
+        }
+        job.finish();
+    }
+
+    private static void assembleAndSend(ZoomJob job) throws Exception {
+        if (job.getPyramid() != null) {
+            BufferedImage level = withPermit(CPU_STAGES, () -> assemble(job));
+            storePyramidLevel(job, level);
+            return;
+        }
+
+        try {
+            byte[] finalBytes = withPermit(CPU_STAGES, () -> OUTPUT_PNG.encode(assemble(job)));
+            LOGGER.info(job + " finished in " + (System.currentTimeMillis() - job.getArrivalMillis()) + " ms");
 
             // Send to C06
-            sendToC06(finalBytes);
+            withPermit(C06_UPLOADS, () -> {
+                sendToC06(finalBytes, job);
+                return null;
+            });
+        } finally {
+            job.finish();
+        }
+    }
+
+    private static BufferedImage assemble(ZoomJob job) {
+        BufferedImage[] parts = job.getTileResults();
+
+        // Assemble img
+        int newHeight = 0;
+        for (BufferedImage part : parts) {
+            newHeight += part.getHeight();
+        }
+        BufferedImage combined = new BufferedImage(parts[0].getWidth(), newHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = combined.createGraphics();
+        int y = 0;
+        for (BufferedImage part : parts) {
+            g2d.drawImage(part, 0, y, null);
+            y += part.getHeight();
+        }
+        g2d.dispose();
+
+        return combined;
+    }
+
+    private static void storePyramidLevel(ZoomJob job, BufferedImage level) throws Exception {
+        TilePyramid pyramid = job.getPyramid();
+        if (pyramid.getId() == -1) {
+            String response = withPermit(C06_UPLOADS, () -> c06Request("POST", C06_PYRAMID_URL,
+                    "application/json", new org.json.JSONObject().put("tileSize", pyramid.getTileSize())
+                            .toString().getBytes(StandardCharsets.UTF_8)));
+            pyramid.setId(new org.json.JSONObject(response).getInt("pyramidId"));
+        }
+
+        int w = level.getWidth();
+        int h = level.getHeight();
+        int levelNumber = pyramid.addLevel(w, h);
+        int tileSize = pyramid.getTileSize();
+        LOGGER.info("Pyramid " + pyramid.getId() + " level " + levelNumber + ": " + w + "x" + h);
+
+        // One stage per row of tiles, so rows of all levels encode and upload in parallel
+        int rows = (h + tileSize - 1) / tileSize;
+        pyramid.addPendingWork(rows);
+        for (int row = 0; row < rows; row++) {
+            final int tileRow = row;
+            scheduler.schedule(job, ZoomJobScheduler.SPLIT_STAGE, () -> storeTileRow(job, level, levelNumber, tileRow));
+        }
+
+        if (pyramid.isLastLevel(w, h)) {
+            finishPyramidWork(job);
+        } else {
+            // Lower levels are halved locally from the raster, so the zoom servers' JPEG loss is paid only once
+            scheduler.schedule(job, ZoomJobScheduler.SPLIT_STAGE, () -> storeNextPyramidLevel(job, level));
+        }
+    }
+
+    private static void storeNextPyramidLevel(ZoomJob job, BufferedImage level) {
+        try {
+            if (job.getPyramid().isFailed()) {
+                finishPyramidWork(job);
+                return;
+            }
+            BufferedImage next = withPermit(CPU_STAGES, () -> halve(level));
+            storePyramidLevel(job, next);
+        } catch (Exception e) {
+            failPyramid(job, e);
+        }
+    }
+
+    // Bilinear at exactly 2:1 averages each 2x2 block
+    private static BufferedImage halve(BufferedImage level) {
+        int w = Math.max(1, level.getWidth() / 2);
+        int h = Math.max(1, level.getHeight() / 2);
+        BufferedImage half = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = half.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(level, 0, 0, w, h, null);
+        g2d.dispose();
+        return half;
+    }
 
+    private static void storeTileRow(ZoomJob job, BufferedImage level, int levelNumber, int row) {
+        TilePyramid pyramid = job.getPyramid();
+        try {
+            if (pyramid.isFailed()) {
+                finishPyramidWork(job);
+                return;
+            }
+            int tileSize = pyramid.getTileSize();
+            int y = row * tileSize;
+            int th = Math.min(tileSize, level.getHeight() - y);
+            for (int x = 0, col = 0; x < level.getWidth(); x += tileSize, col++) {
+                BufferedImage tile = level.getSubimage(x, y, Math.min(tileSize, level.getWidth() - x), th);
+                byte[] tileBytes = withPermit(CPU_STAGES, () -> OUTPUT_PNG.encode(tile));
+                String tileUrl = C06_PYRAMID_URL + "/" + pyramid.getId() + "/tiles/" + levelNumber + "/" + col + "/" + row;
+                withPermit(C06_UPLOADS, () -> c06Request("POST", tileUrl, "application/octet-stream", tileBytes));
+            }
+            finishPyramidWork(job);
         } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Error processing image", e);
+            failPyramid(job, e);
         }
     }
 
-    private static byte[] bufferedImageToBytes(BufferedImage img, String format) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(img, format, baos);
-        return baos.toByteArray();
+    /** Ends one piece of pyramid work that failed; the pyramid is discarded once nothing else is running. */
+    private static void failPyramid(ZoomJob job, Exception e) {
+        TilePyramid pyramid = job.getPyramid();
+        if (pyramid.fail()) {
+            LOGGER.log(Level.SEVERE, "Pyramid " + pyramid.getId() + " failed, discarding it", e);
+            if (job.isProgressive()) {
+                notifications.failed(job.getClientId(), job.getCorrelationId());
+            }
+        }
+        finishPyramidWork(job);
+    }
+
+    // The job ends with the last piece of work on its pyramid
+    private static void finishPyramidWork(ZoomJob job) {
+        TilePyramid pyramid = job.getPyramid();
+        if (!pyramid.finishWork()) {
+            return;
+        }
+        job.finish();
+        if (!pyramid.isFailed()) {
+            try {
+                publishPyramid(pyramid);
+                return;
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Could not publish pyramid " + pyramid.getId() + ", discarding it", e);
+            }
+        }
+        try {
+            discardPyramid(pyramid);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Could not discard pyramid " + pyramid.getId(), e);
+        }
+    }
+
+    // Deletes the tiles stored so far; nothing to do if C06 never assigned an id
+    private static void discardPyramid(TilePyramid pyramid) throws Exception {
+        if (pyramid.getId() != -1) {
+            withPermit(C06_UPLOADS, () -> c06Request("DELETE", C06_PYRAMID_URL + "/" + pyramid.getId(),
+                    "application/json", new byte[0]));
+        }
+    }
+
+    private static void publishPyramid(TilePyramid pyramid) throws Exception {
+        byte[] descriptor = pyramid.toDescriptor().toString().getBytes(StandardCharsets.UTF_8);
+        withPermit(C06_UPLOADS, () -> c06Request("PUT", C06_PYRAMID_URL + "/" + pyramid.getId(),
+                "application/json", descriptor));
+        notifications.newPyramid(pyramid.getId());
+        LOGGER.info("Notification queued for pyramid ID: " + pyramid.getId());
+    }
+
+    private static <T> T withPermit(Semaphore permits, Callable<T> action) throws Exception {
+        permits.acquire();
+        try {
+            return action.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static byte[] callZoomService(boolean onC04, byte[] imageData, int zoomLevel) throws Exception {
+        if (ZOOM_TRANSPORT_NIO) {
+            try {
+                return (onC04 ? C04_NIO : C05_NIO).zoomImage(imageData, zoomLevel);
+            } catch (java.rmi.ConnectException e) {
+                // Worker without the NIO endpoint (or not up yet), or the connection
+                // dropped under this request: use its RMI registration
+                LOGGER.warning(e.getMessage() + ", falling back to RMI");
+            }
+        }
+        ZoomService zoomService = onC04
+                ? lookupZoomService(RMI_SERVER_C04, C04_PORT)
+                : lookupZoomService(RMI_SERVER_C05, C05_PORT);
+        return zoomService.zoomImage(imageData, zoomLevel);
     }
 
     private static ZoomService lookupZoomService(String host, int port) throws Exception {
@@ -167,7 +496,27 @@ public class ImageProcessorConsumer {
         return (ZoomService) registry.lookup("ZoomService");
     }
 
-    private static void sendToC06(byte[] imageData) throws IOException, JMSException {
+    // Plain request to C06 that fails on any non-2xx response, returns the response body
+    private static String c06Request(String method, String target, String contentType, byte[] body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(target).openConnection();
+        try {
+            conn.setDoOutput(true);
+            conn.setRequestMethod(method);
+            conn.setRequestProperty("Content-Type", contentType);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.getOutputStream().write(body);
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode / 100 != 2) {
+                throw new IOException(method + " " + target + " failed with response code " + responseCode);
+            }
+            return new String(conn.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static void sendToC06(byte[] imageData, ZoomJob job) throws IOException {
         HttpURLConnection conn = null;
         int pictureId = -1;
         try {
@@ -203,16 +552,18 @@ public class ImageProcessorConsumer {
         }
 
         if (pictureId != -1) {
-            publishNotification(pictureId);
+            publishNotification(pictureId, job);
         }
     }
 
-    private static void publishNotification(int pictureId) throws JMSException {
-        Topic notifTopic = session.createTopic(NOTIFICATION_TOPIC_NAME);
-        MessageProducer producer = session.createProducer(notifTopic);
-        TextMessage msg = session.createTextMessage("NewImage:" + pictureId);
-        producer.send(msg);
-        LOGGER.info("Notification sent for picture ID: " + pictureId);
-        producer.close();
+    private static void publishNotification(int pictureId, ZoomJob job) {
+        // The client and correlation ids let C01 tell the uploader which streamed image this completes
+        notifications.newImage(pictureId, job.getClientId(), job.getCorrelationId());
+        LOGGER.info("Notification queued for picture ID: " + pictureId);
+    }
+
+    private static String getEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
     }
 }
@@ -0,0 +1,236 @@
+package eu.deic.mdb;
+
+import eu.deic.rmi.ZoomService;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side of the NIO zoom transport (see {@link ZoomProtocol}). All callers
+ * share one persistent connection per worker: requests are written back to back
+ * without waiting for earlier answers, and a reader thread completes each
+ * caller's future as its response arrives.
+ * <p>
+ * A failure to connect, or a connection lost with requests still waiting on
+ * it, is reported as {@link ConnectException}, which the consumer takes as
+ * the signal to fall back to RMI.
+ */
+public class NioZoomClient implements ZoomService {
+
+    private static final Logger LOGGER = Logger.getLogger(NioZoomClient.class.getName());
+
+    private final String host;
+    private final int port;
+    private final long timeoutMillis;
+
+    private final AtomicLong requestIds = new AtomicLong();
+    // Not synchronized: callers may be virtual threads, which must not pin on blocking I/O
+    private final ReentrantLock connectLock = new ReentrantLock();
+    private volatile Link link;
+
+    public NioZoomClient(String host, int port, long timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public byte[] zoomImage(byte[] imageData, int zoomPercent) throws RemoteException {
+        ByteBuffer result;
+        CompletableFuture<ByteBuffer> future = zoomAsync(ByteBuffer.wrap(imageData), zoomPercent);
+        try {
+            result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("Zoom request to " + host + ":" + port + " failed", e.getCause());
+        } catch (TimeoutException e) {
+            // Drops it from the pending requests, a late answer is then discarded
+            future.cancel(false);
+            throw new RemoteException("Zoom request to " + host + ":" + port + " timed out after " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for " + host + ":" + port, e);
+        }
+
+        if (result.hasArray() && result.arrayOffset() == 0 && result.remaining() == result.array().length) {
+            return result.array();
+        }
+        byte[] bytes = new byte[result.remaining()];
+        result.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Sends one zoom request and returns immediately. The future completes with
+     * the encoded zoomed image, or with a {@link RemoteException}; cancelling it
+     * abandons the request.
+     */
+    public CompletableFuture<ByteBuffer> zoomAsync(ByteBuffer imageData, int zoomPercent) {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        long requestId = requestIds.incrementAndGet();
+
+        Link current;
+        try {
+            current = connect();
+        } catch (ConnectException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        current.pending.put(requestId, future);
+        future.whenComplete((result, error) -> current.pending.remove(requestId, future));
+
+        ByteBuffer payload = imageData.duplicate();
+        ByteBuffer header = ByteBuffer.allocate(ZoomProtocol.LENGTH_FIELD + ZoomProtocol.REQUEST_HEADER);
+        header.putInt(ZoomProtocol.REQUEST_HEADER + payload.remaining());
+        header.putLong(requestId);
+        header.put(ZoomProtocol.OP_ZOOM);
+        header.putInt(zoomPercent);
+        header.flip();
+        ByteBuffer[] frame = { header, payload };
+
+        current.writeLock.lock();
+        try {
+            while (payload.hasRemaining() || header.hasRemaining()) {
+                current.channel.write(frame);
+            }
+        } catch (IOException e) {
+            disconnect(current, new ConnectException("Connection to " + host + ":" + port + " lost", e));
+        } finally {
+            current.writeLock.unlock();
+        }
+        return future;
+    }
+
+    public void close() {
+        Link current = link;
+        if (current != null) {
+            disconnect(current, new RemoteException("Client closed"));
+        }
+    }
+
+    private Link connect() throws ConnectException {
+        Link current = link;
+        if (current != null && current.channel.isOpen()) {
+            return current;
+        }
+        connectLock.lock();
+        try {
+            if (link != null && link.channel.isOpen()) {
+                return link;
+            }
+            SocketChannel opened = SocketChannel.open(new InetSocketAddress(host, port));
+            opened.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Link created = new Link(opened);
+            link = created;
+
+            Thread reader = new Thread(() -> readLoop(created), "zoom-nio-reader-" + host);
+            reader.setDaemon(true);
+            reader.start();
+            LOGGER.info("Connected to NIO zoom server " + host + ":" + port);
+            return created;
+        } catch (IOException e) {
+            throw new ConnectException("Could not connect to NIO zoom server " + host + ":" + port, e);
+        } finally {
+            connectLock.unlock();
+        }
+    }
+
+    private void readLoop(Link current) {
+        SocketChannel ch = current.channel;
+        ByteBuffer header = ByteBuffer.allocate(ZoomProtocol.LENGTH_FIELD + ZoomProtocol.RESPONSE_HEADER);
+        try {
+            while (true) {
+                header.clear();
+                readFully(ch, header);
+                header.flip();
+                int length = header.getInt();
+                if (length < ZoomProtocol.RESPONSE_HEADER || length > ZoomProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                long requestId = header.getLong();
+                byte status = header.get();
+
+                // Heap buffer of exactly the payload: the consumer hands it to ImageIO as a byte[]
+                ByteBuffer payload = ByteBuffer.allocate(length - ZoomProtocol.RESPONSE_HEADER);
+                readFully(ch, payload);
+                payload.flip();
+
+                CompletableFuture<ByteBuffer> future = current.pending.remove(requestId);
+                if (future == null) {
+                    LOGGER.fine("Response for unknown or abandoned request " + requestId + " from " + host);
+                } else if (status == ZoomProtocol.STATUS_OK) {
+                    future.complete(payload);
+                } else {
+                    String message = StandardCharsets.UTF_8.decode(payload).toString();
+                    future.completeExceptionally(new RemoteException(message));
+                }
+            }
+        } catch (IOException e) {
+            if (ch.isOpen()) {
+                LOGGER.log(Level.WARNING, "Connection to NIO zoom server " + host + ":" + port + " lost", e);
+            }
+            disconnect(current, new ConnectException("Connection to " + host + ":" + port + " lost", e));
+        }
+    }
+
+    private static void readFully(SocketChannel ch, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (ch.read(buffer) < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+        }
+    }
+
+    // Fails every request still waiting on this connection; the next call reconnects
+    private void disconnect(Link current, RemoteException cause) {
+        connectLock.lock();
+        try {
+            if (link == current) {
+                link = null;
+            }
+        } finally {
+            connectLock.unlock();
+        }
+        try {
+            current.channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing NIO zoom connection", e);
+        }
+        for (Long requestId : current.pending.keySet()) {
+            CompletableFuture<ByteBuffer> future = current.pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    // One connection and the requests still waiting for an answer on it
+    private static final class Link {
+        private final SocketChannel channel;
+        private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        private Link(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package eu.deic.mdb;
+
+import jakarta.jms.Connection;
+import jakarta.jms.JMSException;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces the result notifications for C01. Any worker thread can queue a
+ * finished image or pyramid; a single thread owns the session and producer and
+ * sends everything queued during the last window as one text message, one
+ * notification per line:
+ * <pre>
+ * NewImage:&lt;pictureId&gt;[:&lt;clientId&gt;:&lt;correlationId&gt;]
+ * NewPyramid:&lt;pyramidId&gt;
+ * Failed:&lt;clientId&gt;:&lt;correlationId&gt;
+ * </pre>
+ * so the broker sees a handful of messages per second however many images
+ * complete.
+ */
+public class NotificationBatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationBatcher.class.getName());
+
+    private final Session session;
+    private final MessageProducer producer;
+    private final int maxBatchSize;
+    private final ConcurrentLinkedDeque<String> pending = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "notification-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public NotificationBatcher(Connection connection, String topicName, long windowMs, int maxBatchSize)
+            throws JMSException {
+        this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        this.producer = session.createProducer(session.createTopic(topicName));
+        this.maxBatchSize = maxBatchSize;
+        flusher.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** {@code clientId} and {@code correlationId} are null for uploads that are not streamed back. */
+    public void newImage(int pictureId, String clientId, String correlationId) {
+        pending.add(clientId == null
+                ? "NewImage:" + pictureId
+                : "NewImage:" + pictureId + ":" + clientId + ":" + correlationId);
+    }
+
+    public void newPyramid(int pyramidId) {
+        pending.add("NewPyramid:" + pyramidId);
+    }
+
+    /** A streamed upload that will not complete, so its page can drop the preview. */
+    public void failed(String clientId, String correlationId) {
+        pending.add("Failed:" + clientId + ":" + correlationId);
+    }
+
+    // Only ever runs on the flusher thread, or after it has stopped
+    private void flush() {
+        while (!pending.isEmpty()) {
+            List<String> batch = new ArrayList<>();
+            String notification;
+            while (batch.size() < maxBatchSize && (notification = pending.pollFirst()) != null) {
+                batch.add(notification);
+            }
+            try {
+                producer.send(session.createTextMessage(String.join("\n", batch)));
+                LOGGER.info("Sent " + batch.size() + " notification(s) in one message");
+            } catch (JMSException | RuntimeException e) {
+                // Back at the head, in order, for the next window; thrown out of the
+                // scheduled task it would cancel all later flushes
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    pending.offerFirst(batch.get(i));
+                }
+                LOGGER.log(Level.SEVERE, "Could not send " + batch.size() + " notification(s), retrying", e);
+                return;
+            }
+        }
+    }
+
+    /** Sends what is still queued and closes the producer and its session. */
+    @Override
+    public void close() throws JMSException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        producer.close();
+        session.close();
+    }
+}
@@ -0,0 +1,342 @@
+package eu.deic.mdb;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG writer that compresses large images on several cores, the way pigz
+ * does for gzip: scanlines are cut into chunks of about {@link #CHUNK_BYTES},
+ * each chunk is filtered and deflated on its own (primed with the last 32KB of
+ * the chunk before, so the ratio barely suffers) and the raw deflate pieces are
+ * joined into one zlib stream whose Adler-32 is combined from the per-chunk
+ * checksums. Images that fit in one chunk are encoded on the calling thread.
+ * <p>
+ * Opaque images are written as 8-bit RGB, images with alpha as 8-bit RGBA.
+ */
+public class ParallelPngEncoder {
+
+    /** PNG row filter; ADAPTIVE picks the best of all five per row, as libpng does. */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE;
+
+        public static Filter fromString(String value) {
+            try {
+                return Filter.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown PNG filter: " + value, e);
+            }
+        }
+    }
+
+    static final int CHUNK_BYTES = 128 * 1024;
+    private static final int WINDOW = 32 * 1024;
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private final int compressionLevel;
+    private final Filter filter;
+    private final ExecutorService executor;
+
+    /**
+     * @param compressionLevel deflate level 0-9, 0 stores the data uncompressed
+     * @param executor runs the chunks; the encoding thread only waits and joins
+     */
+    public ParallelPngEncoder(int compressionLevel, Filter filter, ExecutorService executor) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be 0-9: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        this.filter = filter;
+        this.executor = executor;
+    }
+
+    public byte[] encode(BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int bytesPerPixel = alpha ? 4 : 3;
+        int rowBytes = width * bytesPerPixel;
+
+        int rowsPerChunk = Math.max(1, CHUNK_BYTES / (rowBytes + 1));
+        int chunkCount = (height + rowsPerChunk - 1) / rowsPerChunk;
+
+        Chunk[] chunks = new Chunk[chunkCount];
+        if (chunkCount == 1) {
+            Chunk only = new Chunk(image, 0, height, bytesPerPixel);
+            only.filter();
+            only.deflate(null, true);
+            chunks[0] = only;
+        } else {
+            encodeInParallel(image, chunks, rowsPerChunk, bytesPerPixel);
+        }
+
+        long adler = 1;
+        long totalLength = 0;
+        for (Chunk chunk : chunks) {
+            adler = combineAdler32(adler, chunk.adler, chunk.filtered.length);
+            totalLength += chunk.compressed.length;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, totalLength + 256));
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte) (alpha ? 6 : 2);
+        writeChunk(out, "IHDR", header);
+
+        // zlib header, one IDAT per deflated piece, then the combined checksum
+        writeChunk(out, "IDAT", zlibHeader(compressionLevel));
+        for (Chunk chunk : chunks) {
+            writeChunk(out, "IDAT", chunk.compressed);
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, "IDAT", trailer);
+
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private void encodeInParallel(BufferedImage image, Chunk[] chunks, int rowsPerChunk, int bytesPerPixel)
+            throws IOException {
+        int height = image.getHeight();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Chunk>[] filtered = new CompletableFuture[chunks.length];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<Chunk>[] deflated = new CompletableFuture[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            Chunk chunk = new Chunk(image, i * rowsPerChunk, Math.min(height, (i + 1) * rowsPerChunk), bytesPerPixel);
+            filtered[i] = CompletableFuture.supplyAsync(() -> {
+                chunk.filter();
+                return chunk;
+            }, executor);
+        }
+        // A chunk deflates as soon as it and the one before (its dictionary) are filtered
+        for (int i = 0; i < chunks.length; i++) {
+            boolean last = i == chunks.length - 1;
+            if (i == 0) {
+                deflated[i] = filtered[i].thenApplyAsync(chunk -> chunk.deflate(null, last), executor);
+            } else {
+                deflated[i] = filtered[i].thenCombineAsync(filtered[i - 1],
+                        (chunk, previous) -> chunk.deflate(previous.filtered, last), executor);
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(deflated).join();
+        } catch (CompletionException e) {
+            throw new IOException("PNG encoding failed", e.getCause());
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = deflated[i].join();
+        }
+    }
+
+    // A band of rows: filtered bytes (filter type + row for each row), their Adler-32 and the raw deflate output
+    private final class Chunk {
+        private final BufferedImage image;
+        private final int firstRow;
+        private final int endRow;
+        private final int bytesPerPixel;
+
+        private byte[] filtered;
+        private long adler;
+        private byte[] compressed;
+
+        private Chunk(BufferedImage image, int firstRow, int endRow, int bytesPerPixel) {
+            this.image = image;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        private void filter() {
+            int width = image.getWidth();
+            int rowBytes = width * bytesPerPixel;
+            filtered = new byte[(endRow - firstRow) * (rowBytes + 1)];
+
+            int[] pixels = new int[width];
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            byte[][] candidates = filter == Filter.ADAPTIVE ? new byte[5][rowBytes] : null;
+            if (firstRow > 0) {
+                // Filters look one row up, across the chunk boundary
+                readRow(firstRow - 1, pixels, previous);
+            }
+
+            int offset = 0;
+            for (int y = firstRow; y < endRow; y++) {
+                readRow(y, pixels, current);
+                if (filter == Filter.ADAPTIVE) {
+                    int best = 0;
+                    long bestScore = Long.MAX_VALUE;
+                    for (int type = 0; type < 5; type++) {
+                        long score = applyFilter(type, current, previous, candidates[type], 0);
+                        if (score < bestScore) {
+                            bestScore = score;
+                            best = type;
+                        }
+                    }
+                    filtered[offset] = (byte) best;
+                    System.arraycopy(candidates[best], 0, filtered, offset + 1, rowBytes);
+                } else {
+                    int type = filter.ordinal();
+                    filtered[offset] = (byte) type;
+                    applyFilter(type, current, previous, filtered, offset + 1);
+                }
+                offset += rowBytes + 1;
+
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            Adler32 checksum = new Adler32();
+            checksum.update(filtered, 0, filtered.length);
+            adler = checksum.getValue();
+        }
+
+        // Filters one row into out[at..] and returns the sum of absolute values, the usual heuristic
+        private long applyFilter(int type, byte[] row, byte[] up, byte[] out, int at) {
+            int bpp = bytesPerPixel;
+            long score = 0;
+            for (int i = 0; i < row.length; i++) {
+                int x = row[i] & 0xFF;
+                int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                int b = up[i] & 0xFF;
+                int c = i >= bpp ? up[i - bpp] & 0xFF : 0;
+                int predicted;
+                switch (type) {
+                    case 1: predicted = a; break;
+                    case 2: predicted = b; break;
+                    case 3: predicted = (a + b) >>> 1; break;
+                    case 4: predicted = paeth(a, b, c); break;
+                    default: predicted = 0; break;
+                }
+                byte value = (byte) (x - predicted);
+                out[at + i] = value;
+                score += Math.abs(value);
+            }
+            return score;
+        }
+
+        private void readRow(int y, int[] pixels, byte[] out) {
+            int width = image.getWidth();
+            int type = image.getType();
+            if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+                // Straight from the raster, no color conversion per pixel
+                image.getRaster().getDataElements(0, y, width, 1, pixels);
+            } else {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+            }
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = pixels[x];
+                out[i++] = (byte) (argb >>> 16);
+                out[i++] = (byte) (argb >>> 8);
+                out[i++] = (byte) argb;
+                if (bytesPerPixel == 4) {
+                    out[i++] = (byte) (argb >>> 24);
+                }
+            }
+        }
+
+        private Chunk deflate(byte[] dictionary, boolean last) {
+            Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                if (dictionary != null && compressionLevel > Deflater.NO_COMPRESSION) {
+                    int length = Math.min(WINDOW, dictionary.length);
+                    deflater.setDictionary(dictionary, dictionary.length - length, length);
+                }
+                deflater.setInput(filtered);
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream(filtered.length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // Sync flush ends the piece on a byte boundary without ending the stream
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+                compressed = out.toByteArray();
+                return this;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    // adler32_combine from zlib: checksum of A+B from the checksums of A and B and the length of B
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static byte[] zlibHeader(int level) {
+        int cmf = 0x78; // deflate, 32KB window
+        int flevel = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[] { (byte) cmf, (byte) flg };
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] length = new byte[4];
+        putInt(length, 0, data.length);
+        out.write(length, 0, 4);
+        out.write(typeBytes, 0, 4);
+        out.write(data, 0, data.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) crc.getValue());
+        out.write(checksum, 0, 4);
+    }
+
+    private static void putInt(byte[] target, int at, int value) {
+        target[at] = (byte) (value >>> 24);
+        target[at + 1] = (byte) (value >>> 16);
+        target[at + 2] = (byte) (value >>> 8);
+        target[at + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,84 @@
+package eu.deic.mdb;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.Connection;
+import jakarta.jms.DeliveryMode;
+import jakarta.jms.JMSException;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Session;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams zoomed tiles to C01 for progressive display. The zoom workers only
+ * queue a tile; one thread owns the session and producer and sends them, in
+ * order, as non-persistent messages that expire if nobody picks them up.
+ * Tiles are only a preview, so when the queue is full they are dropped.
+ */
+public class TilePublisher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(TilePublisher.class.getName());
+
+    private final Session session;
+    private final MessageProducer producer;
+    private final ThreadPoolExecutor sender;
+
+    public TilePublisher(Connection connection, String topicName, long timeToLiveMs, int maxQueuedTiles)
+            throws JMSException {
+        this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        this.producer = session.createProducer(session.createTopic(topicName));
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        producer.setTimeToLive(timeToLiveMs);
+        this.sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedTiles), r -> {
+                    Thread t = new Thread(r, "tile-publisher");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /** One zoomed strip, encoded as the zoom server returned it, with its place in the final image. */
+    public void publish(ZoomJob job, int tileIndex, byte[] tileBytes) {
+        try {
+            sender.execute(() -> send(job, tileIndex, tileBytes));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warning("Tile queue full, dropping tile " + tileIndex + " of " + job);
+        }
+    }
+
+    private void send(ZoomJob job, int tileIndex, byte[] tileBytes) {
+        try {
+            BytesMessage msg = session.createBytesMessage();
+            msg.writeBytes(tileBytes);
+            msg.setStringProperty("ClientId", job.getClientId());
+            msg.setJMSCorrelationID(job.getCorrelationId());
+            msg.setIntProperty("TileIndex", tileIndex);
+            msg.setIntProperty("TileCount", job.getTileCount());
+            msg.setIntProperty("X", 0);
+            msg.setIntProperty("Y", job.getTileOutputY(tileIndex));
+            msg.setIntProperty("ImageWidth", job.getOutputWidth());
+            msg.setIntProperty("ImageHeight", job.getOutputHeight());
+            producer.send(msg);
+        } catch (JMSException | RuntimeException e) {
+            // Only a preview, the stitched image still follows
+            LOGGER.log(Level.WARNING, "Could not publish tile " + tileIndex + " of " + job, e);
+        }
+    }
+
+    /** Sends the tiles still queued and closes the producer and its session. */
+    @Override
+    public void close() throws JMSException {
+        sender.shutdown();
+        try {
+            sender.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        producer.close();
+        session.close();
+    }
+}
@@ -0,0 +1,89 @@
+package eu.deic.mdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * State of a deep-zoom tile pyramid being built for one upload. Level 0 is the
+ * zoomed full-resolution image, every following level is half the size of the
+ * previous one, down to the first level that fits in a single tile.
+ * <p>
+ * Work on the pyramid (the chain of levels and the tile rows being stored) is
+ * counted in {@link #pendingWork}; whoever finishes the last piece publishes
+ * the descriptor, or discards the pyramid if any piece {@link #fail()}ed.
+ */
+public class TilePyramid {
+
+    private final int tileSize;
+    private volatile int id = -1;
+    private final List<int[]> levelSizes = new ArrayList<>();
+
+    // Starts at 1 for the level chain, which is released once the last level is assembled
+    private final AtomicInteger pendingWork = new AtomicInteger(1);
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    public TilePyramid(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /** Id assigned by C06, or -1 before the pyramid has been registered. */
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /** Records the size of the next level and returns its number. */
+    public synchronized int addLevel(int width, int height) {
+        levelSizes.add(new int[] { width, height });
+        return levelSizes.size() - 1;
+    }
+
+    public boolean isLastLevel(int width, int height) {
+        return Math.max(width, height) <= tileSize;
+    }
+
+    public void addPendingWork(int count) {
+        pendingWork.addAndGet(count);
+    }
+
+    /** Returns true when this was the last outstanding piece of work. */
+    public boolean finishWork() {
+        return pendingWork.decrementAndGet() == 0;
+    }
+
+    /** Marks the pyramid as failed; returns true only for the first caller. */
+    public boolean fail() {
+        return failed.compareAndSet(false, true);
+    }
+
+    public boolean isFailed() {
+        return failed.get();
+    }
+
+    /** Descriptor stored in C06 and read by the viewer in ws-test.html. */
+    public synchronized JSONObject toDescriptor() {
+        JSONArray levels = new JSONArray();
+        for (int[] size : levelSizes) {
+            levels.put(new JSONObject()
+                    .put("width", size[0])
+                    .put("height", size[1])
+                    .put("columns", (size[0] + tileSize - 1) / tileSize)
+                    .put("rows", (size[1] + tileSize - 1) / tileSize));
+        }
+        return new JSONObject()
+                .put("tileSize", tileSize)
+                .put("format", "png")
+                .put("levels", levels);
+    }
+}
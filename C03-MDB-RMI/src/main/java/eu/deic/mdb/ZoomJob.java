@@ -0,0 +1,186 @@
+package eu.deic.mdb;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One uploaded image travelling through the consumer pipeline. The source is
+ * split into horizontal tiles that are scheduled individually, so the tiles of
+ * a large job can interleave with the tiles of small ones.
+ */
+public class ZoomJob {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final long id = SEQUENCE.incrementAndGet();
+    private final long arrivalMillis;
+    private final int zoomLevel;
+    private final int priority;
+    private final long estimatedCost;
+    private final TilePyramid pyramid;
+
+    // Uploading browser and this upload's id, set when its tiles are streamed back as they finish
+    private String clientId;
+    private String correlationId;
+
+    private byte[] imageData;
+    private BufferedImage[] tileSources;
+    private BufferedImage[] tileResults;
+    private int[] tileOutputY;
+    private int outputWidth;
+    private int outputHeight;
+    private final AtomicInteger remainingTiles = new AtomicInteger();
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile Runnable onFinished;
+
+    public ZoomJob(byte[] imageData, int zoomLevel, int priority, long estimatedCost) {
+        this(imageData, zoomLevel, priority, estimatedCost, null);
+    }
+
+    /** A job whose result becomes level 0 of {@code pyramid}; null for a single output image. */
+    public ZoomJob(byte[] imageData, int zoomLevel, int priority, long estimatedCost, TilePyramid pyramid) {
+        this.imageData = imageData;
+        this.zoomLevel = zoomLevel;
+        this.priority = priority;
+        this.estimatedCost = estimatedCost;
+        this.pyramid = pyramid;
+        this.arrivalMillis = System.currentTimeMillis();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getArrivalMillis() {
+        return arrivalMillis;
+    }
+
+    public int getZoomLevel() {
+        return zoomLevel;
+    }
+
+    /** JMS priority (0-9) assigned by the upload servlet. */
+    public int getPriority() {
+        return priority;
+    }
+
+    /** Expected amount of work, in output bytes (input size scaled by zoom squared). */
+    public long getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    /** Returns the encoded upload once; the reference is dropped so the bytes can be collected after decode. */
+    public byte[] takeImageData() {
+        byte[] data = imageData;
+        imageData = null;
+        return data;
+    }
+
+    public TilePyramid getPyramid() {
+        return pyramid;
+    }
+
+    /** Streams this job's zoomed tiles to {@code clientId}, tagged with {@code correlationId}. */
+    public void setClient(String clientId, String correlationId) {
+        this.clientId = clientId;
+        this.correlationId = correlationId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /** True when zoomed tiles should be pushed to the uploading client before the image is complete. */
+    public boolean isProgressive() {
+        return clientId != null && pyramid == null;
+    }
+
+    public void setTiles(BufferedImage[] sources) {
+        this.tileSources = sources;
+        this.tileResults = new BufferedImage[sources.length];
+        this.remainingTiles.set(sources.length);
+
+        // Where each zoomed strip lands in the result, with the rounding the zoom servers use
+        this.tileOutputY = new int[sources.length];
+        int y = 0;
+        for (int i = 0; i < sources.length; i++) {
+            tileOutputY[i] = y;
+            y += zoomed(sources[i].getHeight());
+        }
+        this.outputWidth = zoomed(sources[0].getWidth());
+        this.outputHeight = y;
+    }
+
+    private int zoomed(int size) {
+        return Math.max(1, size * zoomLevel / 100);
+    }
+
+    public int getTileOutputY(int index) {
+        return tileOutputY[index];
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    public int getTileCount() {
+        return tileSources == null ? 0 : tileSources.length;
+    }
+
+    public BufferedImage getTileSource(int index) {
+        return tileSources[index];
+    }
+
+    /**
+     * Stores a zoomed tile and reports whether it was the last outstanding one,
+     * in which case the caller is responsible for assembling the result.
+     */
+    public boolean completeTile(int index, BufferedImage result) {
+        tileResults[index] = result;
+        tileSources[index] = null;
+        return remainingTiles.decrementAndGet() == 0;
+    }
+
+    public BufferedImage[] getTileResults() {
+        return tileResults;
+    }
+
+    /** Runs {@code action} when the job has finished, successfully or not. */
+    public void setOnFinished(Runnable action) {
+        this.onFinished = action;
+    }
+
+    /** Ends the job, whatever its outcome; only the first call runs the onFinished action. */
+    public void finish() {
+        Runnable action = onFinished;
+        if (finished.compareAndSet(false, true) && action != null) {
+            action.run();
+        }
+    }
+
+    /** Marks the job as failed; returns true only for the first caller. */
+    public boolean fail() {
+        return failed.compareAndSet(false, true);
+    }
+
+    public boolean isFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ZoomJob#" + id + " (zoom=" + zoomLevel + "%, priority=" + priority + ", cost=" + estimatedCost
+                + (pyramid != null ? ", pyramid" : "") + ")";
+    }
+}
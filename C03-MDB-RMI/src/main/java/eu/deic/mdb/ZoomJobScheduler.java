@@ -0,0 +1,157 @@
+package eu.deic.mdb;
+
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Orders the pipeline stages of all in-flight {@link ZoomJob}s and runs them on
+ * an executor chosen by {@link ExecutionMode}. Each stage (the split of a job,
+ * or one of its tiles) is queued with a key derived from the job, so small
+ * uploads can overtake the remaining tiles of a big one.
+ * <p>
+ * A single dispatcher thread takes stages in key order whenever an in-flight
+ * permit is free: one per pool thread in platform mode, or in virtual mode,
+ * where each stage gets its own virtual thread, as many as the consumer has
+ * permits for the limited resources. The mode only changes how threads are
+ * created, not how much work is admitted past the queue.
+ */
+public class ZoomJobScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(ZoomJobScheduler.class.getName());
+
+    public enum Policy {
+        /**
+         * Lowest estimated job cost first. Gives the best median latency, but a
+         * steady stream of small uploads can hold a large job back indefinitely.
+         */
+        SHORTEST_JOB_FIRST,
+        /**
+         * Each tile gets a virtual finish time: the job's arrival plus its share
+         * of the job cost, divided by a weight taken from the JMS priority. A
+         * big job progresses tile by tile, and newer small jobs slot in between.
+         */
+        WEIGHTED_FAIR
+    }
+
+    /** Marks the stage that decodes and splits a job, as opposed to a tile index. */
+    public static final int SPLIT_STAGE = -1;
+
+    private final Policy policy;
+    private final long costPerMillis;
+    private final PriorityBlockingQueue<ScheduledStage> queue;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxStagesInFlight;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public ZoomJobScheduler(Policy policy, ExecutionMode mode, int workerCount, int maxInFlight, long costPerMillis) {
+        this.policy = policy;
+        this.costPerMillis = Math.max(1, costPerMillis);
+        this.queue = new PriorityBlockingQueue<>(64,
+                Comparator.comparingLong((ScheduledStage s) -> s.key).thenComparingLong(s -> s.sequence));
+
+        this.executor = mode.newExecutor(workerCount, "zoom-worker");
+        this.maxStagesInFlight = mode.runsOnVirtualThreads() ? maxInFlight : workerCount;
+        this.inFlight = new Semaphore(maxStagesInFlight);
+
+        this.dispatcher = new Thread(this::dispatchLoop, "zoom-dispatcher");
+        dispatcher.start();
+        LOGGER.info("Scheduler started with policy " + policy + ", " + mode + " execution and "
+                + maxStagesInFlight + " stages in flight");
+    }
+
+    /**
+     * Queues one stage of a job. {@code tileIndex} is either {@link #SPLIT_STAGE}
+     * or the index of the tile the stage works on.
+     */
+    public void schedule(ZoomJob job, int tileIndex, Runnable stage) {
+        queue.put(new ScheduledStage(keyFor(job, tileIndex), sequence.incrementAndGet(), job, stage));
+    }
+
+    public int getQueuedStages() {
+        return queue.size();
+    }
+
+    public int getStagesInFlight() {
+        return maxStagesInFlight - inFlight.availablePermits();
+    }
+
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        executor.shutdownNow();
+    }
+
+    private long keyFor(ZoomJob job, int tileIndex) {
+        switch (policy) {
+            case SHORTEST_JOB_FIRST:
+                return job.getEstimatedCost();
+            case WEIGHTED_FAIR:
+            default:
+                // The split (decode) and pyramid stages are keyed at the job's whole
+                // cost, so a burst of new jobs does not jump ahead of running ones
+                long share = job.getEstimatedCost();
+                if (tileIndex != SPLIT_STAGE && job.getTileCount() > 0) {
+                    share = (tileIndex + 1) * (job.getEstimatedCost() / job.getTileCount());
+                }
+                int weight = Math.max(1, job.getPriority() + 1);
+                return job.getArrivalMillis() + share / (costPerMillis * weight);
+        }
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            ScheduledStage next;
+            try {
+                // Take a permit first, so the stage is picked as late as possible
+                // and a newly queued small job can still win
+                inFlight.acquire();
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (next.job.isFailed()) {
+                inFlight.release();
+                continue;
+            }
+            try {
+                executor.execute(() -> run(next));
+            } catch (RuntimeException e) {
+                inFlight.release();
+                LOGGER.log(Level.SEVERE, "Could not start stage of " + next.job, e);
+            }
+        }
+    }
+
+    private void run(ScheduledStage next) {
+        try {
+            next.stage.run();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Unhandled error in stage of " + next.job, e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private static final class ScheduledStage {
+        private final long key;
+        private final long sequence;
+        private final ZoomJob job;
+        private final Runnable stage;
+
+        private ScheduledStage(long key, long sequence, ZoomJob job, Runnable stage) {
+            this.key = key;
+            this.sequence = sequence;
+            this.job = job;
+            this.stage = stage;
+        }
+    }
+}
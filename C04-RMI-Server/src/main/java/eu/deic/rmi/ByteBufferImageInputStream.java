@@ -0,0 +1,51 @@
+package eu.deic.rmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Image input stream over a (possibly direct) buffer. Unlike
+ * {@code ImageIO.createImageInputStream(InputStream)} it needs no cache: the
+ * whole image is already in the buffer, so seeking is just repositioning.
+ */
+class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferImageInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        return buffer.get((int) streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        int n = (int) Math.min(len, buffer.limit() - streamPos);
+        buffer.position((int) streamPos);
+        buffer.get(b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+}
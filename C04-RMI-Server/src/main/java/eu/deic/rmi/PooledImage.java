@@ -0,0 +1,156 @@
+package eu.deic.rmi;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.IntBinaryOperator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A {@link BufferedImage} whose pixel array is borrowed from a
+ * {@link RasterBufferPool}; {@link #close()} hands the array back, after which
+ * the image must not be used. Layouts the pool cannot back (banded or 16-bit
+ * rasters) get a plain image and closing is a no-op.
+ */
+final class PooledImage implements AutoCloseable {
+
+    private static final DirectColorModel RGB = new DirectColorModel(24, 0xFF0000, 0x00FF00, 0x0000FF, 0);
+
+    private final BufferedImage image;
+    private final RasterBufferPool.Lease<?> lease;
+    private int sourceWidth;
+    private int sourceHeight;
+
+    private PooledImage(BufferedImage image, RasterBufferPool.Lease<?> lease) {
+        this.image = image;
+        this.lease = lease;
+        this.sourceWidth = image.getWidth();
+        this.sourceHeight = image.getHeight();
+    }
+
+    BufferedImage get() {
+        return image;
+    }
+
+    /** Full-resolution width of a decoded image, which may have been subsampled. */
+    int sourceWidth() {
+        return sourceWidth;
+    }
+
+    int sourceHeight() {
+        return sourceHeight;
+    }
+
+    @Override
+    public void close() {
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    /** Opaque {@code TYPE_INT_RGB} image on a pooled int[]. */
+    static PooledImage createRgb(RasterBufferPool pool, int width, int height) {
+        RasterBufferPool.Lease<int[]> pixels = pool.borrowInts(Math.multiplyExact(width, height));
+        DataBufferInt data = new DataBufferInt(pixels.get(), width * height);
+        WritableRaster raster = Raster.createPackedRaster(data, width, height, width,
+                RGB.getMasks(), new Point(0, 0));
+        return new PooledImage(new BufferedImage(RGB, raster, false, null), pixels);
+    }
+
+    /**
+     * Decodes the first image of {@code input} into a pooled raster of the
+     * reader's native layout, or returns null when no reader accepts the data.
+     * {@code subsampling} maps the full-resolution size to the factor the
+     * reader keeps every n-th pixel and row with (1 for all of them); only the
+     * kept pixels are ever allocated.
+     */
+    static PooledImage decode(RasterBufferPool pool, ImageInputStream input, IntBinaryOperator subsampling)
+            throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int factor = Math.max(1, subsampling.applyAsInt(width, height));
+            if (factor > 1) {
+                param.setSourceSubsampling(factor, factor, 0, 0);
+            }
+            PooledImage destination = allocate(pool, reader.getImageTypes(0).next(),
+                    (width + factor - 1) / factor, (height + factor - 1) / factor);
+            destination.sourceWidth = width;
+            destination.sourceHeight = height;
+            param.setDestination(destination.image);
+            try {
+                reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                destination.close();
+                throw e;
+            }
+            return destination;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static PooledImage allocate(RasterBufferPool pool, ImageTypeSpecifier type, int width, int height) {
+        SampleModel sampleModel = type.getSampleModel(width, height);
+        ColorModel colorModel = type.getColorModel();
+
+        long elements;
+        if (sampleModel instanceof PixelInterleavedSampleModel) {
+            elements = (long) ((PixelInterleavedSampleModel) sampleModel).getScanlineStride() * height;
+        } else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            elements = (long) ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() * height;
+        } else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            elements = (long) ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride() * height;
+        } else {
+            return new PooledImage(type.createBufferedImage(width, height), null);
+        }
+        if (elements > Integer.MAX_VALUE) {
+            return new PooledImage(type.createBufferedImage(width, height), null);
+        }
+
+        RasterBufferPool.Lease<?> lease;
+        DataBuffer data;
+        switch (sampleModel.getDataType()) {
+            case DataBuffer.TYPE_BYTE: {
+                RasterBufferPool.Lease<byte[]> bytes = pool.borrowBytes((int) elements);
+                data = new DataBufferByte(bytes.get(), (int) elements);
+                lease = bytes;
+                break;
+            }
+            case DataBuffer.TYPE_INT: {
+                RasterBufferPool.Lease<int[]> ints = pool.borrowInts((int) elements);
+                data = new DataBufferInt(ints.get(), (int) elements);
+                lease = ints;
+                break;
+            }
+            default:
+                return new PooledImage(type.createBufferedImage(width, height), null);
+        }
+
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, data, new Point(0, 0));
+        return new PooledImage(new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null), lease);
+    }
+}
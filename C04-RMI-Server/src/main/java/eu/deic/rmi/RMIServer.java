@@ -1,18 +1,68 @@
 package eu.deic.rmi;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import javax.imageio.ImageIO;
 
 public class RMIServer {
+
+    // Binary NIO transport for the same contract; RMI stays registered as the fallback
+    private static final int NIO_PORT = Integer.parseInt(
+            System.getenv().getOrDefault("ZOOM_NIO_PORT", "1199"));
+
+    // Services are only registered once the warm-up has run; the ready file
+    // is what the container health check looks for
+    private static final boolean WARMUP_ENABLED = Boolean.parseBoolean(
+            System.getenv().getOrDefault("WARMUP_ENABLED", "true"));
+    private static final int WARMUP_ROUNDS = Integer.parseInt(
+            System.getenv().getOrDefault("WARMUP_ROUNDS", "5"));
+    private static final long WARMUP_MAX_MS = Long.parseLong(
+            System.getenv().getOrDefault("WARMUP_MAX_MS", "30000"));
+    private static final Path READY_FILE = Paths.get(
+            System.getenv().getOrDefault("READY_FILE", "/tmp/zoom-server.ready"));
+
+    // Warms up and exits, for the AppCDS training run in the Dockerfile
+    private static final String WARMUP_ONLY = "--warmup-only";
+
     public static void main(String[] args) {
         try {
+            Files.deleteIfExists(READY_FILE);
+            // Everything goes through memory streams, the disk cache only costs a temp file per image
+            ImageIO.setUseCache(false);
+
+            ZoomServiceImpl service = new ZoomServiceImpl();
+            boolean warmupOnly = args.length > 0 && WARMUP_ONLY.equals(args[0]);
+            if (WARMUP_ENABLED || warmupOnly) {
+                try {
+                    new ZoomWarmup(WARMUP_ROUNDS, WARMUP_MAX_MS).run(service);
+                } catch (Exception e) {
+                    // Only makes the first requests faster, serve without it
+                    System.err.println("Warm-up failed, starting cold: " + e);
+                    e.printStackTrace();
+                }
+            }
+            if (warmupOnly) {
+                System.exit(0);
+            }
 
-            ZoomService service = new ZoomServiceImpl();
             Registry registry = LocateRegistry.createRegistry(1099); 
             registry.rebind("ZoomService", service);
 
             System.out.println("RMI Server is running on port 1099...");
 
+            NioZoomServer nioServer = new NioZoomServer(service, NIO_PORT, Runtime.getRuntime().availableProcessors());
+            nioServer.start();
+            System.out.println("NIO zoom server is running on port " + NIO_PORT + "...");
+
+            RasterBufferPool.shared().logMetricsEvery(60);
+
+            Files.createFile(READY_FILE);
+            READY_FILE.toFile().deleteOnExit();
+            System.out.println("Zoom server ready");
+
             Thread.sleep(Long.MAX_VALUE); 
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,232 @@
+package eu.deic.rmi;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Size-classed pool for the large buffers of a zoom request: direct (off-heap)
+ * buffers for encoded image bytes, and heap pixel arrays for decoded and
+ * resized rasters, which Java2D cannot back with off-heap memory.
+ * <p>
+ * Classes are powers of two from {@link #MIN_CLASS_BYTES}; bigger requests
+ * than {@link #MAX_CLASS_BYTES} are allocated unpooled. Every buffer is handed
+ * out in a {@link Lease}; a lease that is garbage collected without being
+ * closed is reported as a leak.
+ */
+public final class RasterBufferPool {
+
+    private static final Logger LOGGER = Logger.getLogger(RasterBufferPool.class.getName());
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    static final int MIN_CLASS_BYTES = 64 * 1024;
+    static final int MAX_CLASS_BYTES = 256 * 1024 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_BYTES);
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS_BYTES) - MIN_SHIFT + 1;
+
+    private static final RasterBufferPool SHARED = new RasterBufferPool(
+            Long.parseLong(System.getenv().getOrDefault("RASTER_POOL_MAX_MB", "512")) * 1024 * 1024,
+            Boolean.parseBoolean(System.getenv().getOrDefault("RASTER_POOL_LEAK_TRACES", "false")));
+
+    private enum Kind {
+        DIRECT, INTS, BYTES
+    }
+
+    private final long maxPooledBytes;
+    private final boolean leakTraces;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Deque<Object>[][] free = new Deque[Kind.values().length][CLASS_COUNT];
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong unpooled = new AtomicLong();
+    private final AtomicLong returns = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+
+    RasterBufferPool(long maxPooledBytes, boolean leakTraces) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.leakTraces = leakTraces;
+        for (Deque<Object>[] perKind : free) {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                perKind[i] = new ConcurrentLinkedDeque<>();
+            }
+        }
+    }
+
+    public static RasterBufferPool shared() {
+        return SHARED;
+    }
+
+    /** Direct buffer with position 0 and limit {@code minBytes}. */
+    public Lease<ByteBuffer> borrowDirect(int minBytes) {
+        Lease<ByteBuffer> lease = borrow(Kind.DIRECT, minBytes, 1);
+        lease.buffer.clear().limit(minBytes);
+        return lease;
+    }
+
+    /** Int array of at least {@code minLength} elements; contents are undefined. */
+    public Lease<int[]> borrowInts(int minLength) {
+        return borrow(Kind.INTS, minLength, Integer.BYTES);
+    }
+
+    /** Byte array of at least {@code minLength} elements; contents are undefined. */
+    public Lease<byte[]> borrowBytes(int minLength) {
+        return borrow(Kind.BYTES, minLength, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Lease<T> borrow(Kind kind, int minLength, int elementBytes) {
+        borrows.incrementAndGet();
+        long minBytes = (long) minLength * elementBytes;
+        int sizeClass = sizeClass(minBytes);
+        long bytes;
+        Object buffer = null;
+
+        if (sizeClass < 0) {
+            unpooled.incrementAndGet();
+            bytes = minBytes;
+        } else {
+            bytes = classBytes(sizeClass);
+            buffer = free[kind.ordinal()][sizeClass].pollFirst();
+            if (buffer != null) {
+                hits.incrementAndGet();
+                pooledBytes.addAndGet(-bytes);
+            }
+        }
+        if (buffer == null) {
+            int length = (int) (bytes / elementBytes);
+            buffer = kind == Kind.DIRECT ? ByteBuffer.allocateDirect(length)
+                    : kind == Kind.INTS ? new int[length]
+                    : new byte[length];
+        }
+        outstandingBytes.addAndGet(bytes);
+        return new Lease<>(this, kind, sizeClass, bytes, (T) buffer);
+    }
+
+    private void giveBack(Kind kind, int sizeClass, long bytes, Object buffer) {
+        returns.incrementAndGet();
+        outstandingBytes.addAndGet(-bytes);
+        if (sizeClass < 0) {
+            return;
+        }
+        if (pooledBytes.addAndGet(bytes) > maxPooledBytes) {
+            // Over budget, let the GC (or the buffer's cleaner) have it
+            pooledBytes.addAndGet(-bytes);
+            dropped.incrementAndGet();
+            return;
+        }
+        free[kind.ordinal()][sizeClass].offerFirst(buffer);
+    }
+
+    private void reportLeak(String description, Throwable site) {
+        leaks.incrementAndGet();
+        if (site != null) {
+            LOGGER.log(Level.WARNING, "Leaked pool buffer: " + description, site);
+        } else {
+            LOGGER.warning("Leaked pool buffer: " + description
+                    + " (set RASTER_POOL_LEAK_TRACES=true to record where it was borrowed)");
+        }
+    }
+
+    private static int sizeClass(long bytes) {
+        if (bytes > MAX_CLASS_BYTES) {
+            return -1;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(Math.max(bytes, MIN_CLASS_BYTES) - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    private static long classBytes(int sizeClass) {
+        return 1L << (sizeClass + MIN_SHIFT);
+    }
+
+    public String metrics() {
+        long borrowed = borrows.get();
+        long hitRate = borrowed == 0 ? 0 : hits.get() * 100 / borrowed;
+        return "borrows=" + borrowed + " hits=" + hits.get() + " (" + hitRate + "%) unpooled=" + unpooled.get()
+                + " returns=" + returns.get() + " dropped=" + dropped.get() + " leaks=" + leaks.get()
+                + " outstanding=" + (outstandingBytes.get() >> 20) + "MB"
+                + " pooled=" + (pooledBytes.get() >> 20) + "/" + (maxPooledBytes >> 20) + "MB";
+    }
+
+    /** Logs {@link #metrics()} every {@code periodSeconds} on a daemon thread. */
+    public void logMetricsEvery(long periodSeconds) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "raster-pool-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> LOGGER.info("Raster pool: " + metrics()),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /** A borrowed buffer; {@link #close()} returns it to the pool, once. */
+    public static final class Lease<T> implements AutoCloseable {
+        private final T buffer;
+        private final LeakCheck check;
+        private final Cleaner.Cleanable cleanable;
+
+        private Lease(RasterBufferPool pool, Kind kind, int sizeClass, long bytes, T buffer) {
+            this.buffer = buffer;
+            Throwable site = pool.leakTraces ? new Throwable("Borrowed here") : null;
+            this.check = new LeakCheck(pool, kind, sizeClass, bytes, site);
+            this.cleanable = CLEANER.register(this, check);
+        }
+
+        public T get() {
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            if (!check.released.compareAndSet(false, true)) {
+                LOGGER.warning("Pool buffer released twice: " + check.describe());
+                return;
+            }
+            check.pool.giveBack(check.kind, check.sizeClass, check.bytes, buffer);
+            cleanable.clean();
+        }
+    }
+
+    // Must not reference the lease or its buffer, or the lease would never become unreachable
+    private static final class LeakCheck implements Runnable {
+        private final RasterBufferPool pool;
+        private final Kind kind;
+        private final int sizeClass;
+        private final long bytes;
+        private final Throwable site;
+        // Claimed by close() or by the cleaner, whichever comes first
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private LeakCheck(RasterBufferPool pool, Kind kind, int sizeClass, long bytes, Throwable site) {
+            this.pool = pool;
+            this.kind = kind;
+            this.sizeClass = sizeClass;
+            this.bytes = bytes;
+            this.site = site;
+        }
+
+        private String describe() {
+            return kind + " buffer of " + bytes + " bytes";
+        }
+
+        @Override
+        public void run() {
+            if (released.compareAndSet(false, true)) {
+                pool.outstandingBytes.addAndGet(-bytes);
+                pool.reportLeak(describe(), site);
+            }
+        }
+    }
+}
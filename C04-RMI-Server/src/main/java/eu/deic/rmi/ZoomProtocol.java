@@ -0,0 +1,27 @@
+package eu.deic.rmi;
+
+/**
+ * Binary framing of the NIO zoom transport. Every frame starts with an int
+ * holding the number of bytes that follow it.
+ * <pre>
+ * request:  length | long requestId | byte opcode | int zoomPercent | image bytes
+ * response: length | long requestId | byte status | image bytes or UTF-8 error message
+ * </pre>
+ * Requests on a connection are answered in completion order, not send order;
+ * the request id pairs them up.
+ */
+final class ZoomProtocol {
+
+    static final int LENGTH_FIELD = 4;
+    static final int REQUEST_HEADER = 8 + 1 + 4;
+    static final int RESPONSE_HEADER = 8 + 1;
+    static final int MAX_FRAME_LENGTH = 512 * 1024 * 1024;
+
+    static final byte OP_ZOOM = 1;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private ZoomProtocol() {
+    }
+}
@@ -0,0 +1,92 @@
+package eu.deic.rmi;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Synthetic workload run before the server is registered: every supported
+ * input format through decode, resize and encode at the zoom levels clients
+ * use. This loads the ImageIO codecs and Java2D loops, lets the JIT compile
+ * the pixel loops and fills the buffer pool, so the first real images do not
+ * pay for any of it. The same run is used as the AppCDS training workload.
+ */
+public final class ZoomWarmup {
+
+    private static final Logger LOGGER = Logger.getLogger(ZoomWarmup.class.getName());
+
+    private static final String[] FORMATS = { "png", "jpg", "bmp", "gif" };
+    // Spread over the 1 to 200 range the upload form allows, downscales and upscales
+    private static final int[] ZOOM_LEVELS = { 10, 25, 50, 100, 150, 200 };
+    private static final int[] IMAGE_TYPES = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY };
+
+    private final int maxRounds;
+    private final long maxMillis;
+
+    public ZoomWarmup(int maxRounds, long maxMillis) {
+        this.maxRounds = maxRounds;
+        this.maxMillis = maxMillis;
+    }
+
+    /** Runs {@code maxRounds} rounds, fewer if {@code maxMillis} runs out first. */
+    public void run(ZoomServiceImpl service) throws IOException {
+        long start = System.currentTimeMillis();
+        List<byte[]> samples = samples();
+
+        // Per-request INFO logging would drown the startup log
+        Logger serviceLogger = Logger.getLogger(ZoomServiceImpl.class.getName());
+        Level serviceLevel = serviceLogger.getLevel();
+        serviceLogger.setLevel(Level.WARNING);
+        int rounds = 0;
+        int requests = 0;
+        try {
+            while (rounds < maxRounds && System.currentTimeMillis() - start < maxMillis) {
+                for (byte[] sample : samples) {
+                    for (int zoom : ZOOM_LEVELS) {
+                        service.zoom(ByteBuffer.wrap(sample), zoom).close();
+                        requests++;
+                    }
+                }
+                rounds++;
+            }
+        } finally {
+            serviceLogger.setLevel(serviceLevel);
+        }
+        LOGGER.info("Warm-up done: " + rounds + " rounds, " + requests + " zoom requests over "
+                + samples.size() + " samples in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Every image type the codecs support in every format, at a tile-like size
+    private static List<byte[]> samples() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        Random random = new Random(42);
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = new BufferedImage(320, 240, type);
+            Graphics2D g = image.createGraphics();
+            g.setPaint(new GradientPaint(0, 0, new Color(200, 40, 40, 180), 320, 240, Color.BLUE));
+            g.fillRect(0, 0, 320, 240);
+            g.dispose();
+            for (int i = 0; i < 2000; i++) {
+                image.setRGB(random.nextInt(320), random.nextInt(240), random.nextInt());
+            }
+            for (String format : FORMATS) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (ImageIO.write(image, format, out)) {
+                    samples.add(out.toByteArray());
+                }
+            }
+        }
+        return samples;
+    }
+}
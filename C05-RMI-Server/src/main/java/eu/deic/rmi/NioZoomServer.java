@@ -0,0 +1,296 @@
+package eu.deic.rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the zoom contract over {@link ZoomProtocol} frames, next to the RMI
+ * registry. One selector thread does all socket I/O; decoding, resizing and
+ * encoding run on a worker pool, so a client can pipeline many requests on a
+ * single persistent connection and get the answers as they finish.
+ */
+public class NioZoomServer implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(NioZoomServer.class.getName());
+
+    private final ZoomServiceImpl service;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopping;
+    private Thread selectorThread;
+
+    public NioZoomServer(ZoomServiceImpl service, int port, int workerThreads) throws IOException {
+        this.service = service;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    public void start() {
+        selectorThread = new Thread(this, "zoom-nio-selector");
+        selectorThread.start();
+    }
+
+    /**
+     * Closes the listening socket and every accepted connection, so clients
+     * see the connection drop instead of waiting out their timeout, and gives
+     * the buffers of unsent responses back to the pool.
+     */
+    public void stop() throws IOException {
+        stopping = true;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopping) {
+                selector.select();
+
+                // Interest ops may only change on this thread
+                Connection ready;
+                while ((ready = pendingWrites.poll()) != null) {
+                    if (ready.key.isValid()) {
+                        ready.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Closing zoom connection after I/O error", e);
+                        connection.close();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // stopped
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "NIO zoom server stopped", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    // Connections are only touched on the selector thread, so they are closed here rather than in stop()
+    private void closeAll() {
+        try {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // already closed
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing NIO zoom server", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        LOGGER.info("NIO zoom connection from " + channel.getRemoteAddress());
+    }
+
+    private void handle(Connection connection, RasterBufferPool.Lease<ByteBuffer> frame) {
+        ByteBuffer request = frame.get();
+        long requestId = request.getLong();
+        byte opcode = request.get();
+        int zoomPercent = request.getInt();
+        ByteBuffer payload = request.slice();
+
+        try {
+            if (opcode != ZoomProtocol.OP_ZOOM) {
+                throw new IOException("Unknown opcode " + opcode);
+            }
+            LOGGER.info("Received NIO request to zoom image with zoom level: " + zoomPercent);
+            RasterBufferPool.Lease<ByteBuffer> zoomed = service.zoom(payload, zoomPercent);
+            connection.respond(requestId, ZoomProtocol.STATUS_OK, zoomed.get(), zoomed);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error during image processing", e);
+            String message = "Error during image processing: " + e.getMessage();
+            connection.respond(requestId, ZoomProtocol.STATUS_ERROR,
+                    ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), null);
+        } finally {
+            frame.close();
+        }
+    }
+
+    // A response waiting to be written, and the pooled buffer to give back once it has been
+    private static final class Response {
+        private final ByteBuffer[] buffers;
+        private final RasterBufferPool.Lease<ByteBuffer> lease;
+
+        private Response(ByteBuffer[] buffers, RasterBufferPool.Lease<ByteBuffer> lease) {
+            this.buffers = buffers;
+            this.lease = lease;
+        }
+
+        private boolean hasRemaining() {
+            return buffers[buffers.length - 1].hasRemaining();
+        }
+
+        private void release() {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        private final ByteBuffer lengthBuffer = ByteBuffer.allocate(ZoomProtocol.LENGTH_FIELD);
+        private RasterBufferPool.Lease<ByteBuffer> frame;
+
+        private final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+        private Response writing;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Reads as many pipelined frames as are available and hands each to a worker
+        private void read() throws IOException {
+            while (true) {
+                if (frame == null) {
+                    if (channel.read(lengthBuffer) < 0) {
+                        close();
+                        return;
+                    }
+                    if (lengthBuffer.hasRemaining()) {
+                        return;
+                    }
+                    lengthBuffer.flip();
+                    int length = lengthBuffer.getInt();
+                    lengthBuffer.clear();
+                    if (length < ZoomProtocol.REQUEST_HEADER || length > ZoomProtocol.MAX_FRAME_LENGTH) {
+                        throw new IOException("Invalid frame length: " + length);
+                    }
+                    frame = RasterBufferPool.shared().borrowDirect(length);
+                }
+                if (channel.read(frame.get()) < 0) {
+                    close();
+                    return;
+                }
+                if (frame.get().hasRemaining()) {
+                    return;
+                }
+                frame.get().flip();
+                RasterBufferPool.Lease<ByteBuffer> request = frame;
+                frame = null;
+                workers.execute(() -> handle(this, request));
+            }
+        }
+
+        private void respond(long requestId, byte status, ByteBuffer payload, RasterBufferPool.Lease<ByteBuffer> lease) {
+            ByteBuffer header = ByteBuffer.allocate(ZoomProtocol.LENGTH_FIELD + ZoomProtocol.RESPONSE_HEADER);
+            header.putInt(ZoomProtocol.RESPONSE_HEADER + payload.remaining());
+            header.putLong(requestId);
+            header.put(status);
+            header.flip();
+            Response response = new Response(new ByteBuffer[] { header, payload }, lease);
+            responses.add(response);
+            if (!channel.isOpen() && responses.remove(response)) {
+                // Closed meanwhile, and close() did not get to drain this one
+                response.release();
+                return;
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        private void write() throws IOException {
+            while (true) {
+                if (writing == null) {
+                    writing = responses.poll();
+                    if (writing == null) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+                channel.write(writing.buffers);
+                if (writing.hasRemaining()) {
+                    return;
+                }
+                writing.release();
+                writing = null;
+            }
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing zoom connection", e);
+            }
+            // Buffers of unsent responses go back to the pool
+            if (frame != null) {
+                frame.close();
+                frame = null;
+            }
+            if (writing != null) {
+                writing.release();
+                writing = null;
+            }
+            Response unsent;
+            while ((unsent = responses.poll()) != null) {
+                unsent.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package eu.deic.rmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * Image output stream that encodes straight into a pooled direct buffer,
+ * moving to the next size class when it fills up. Replaces the growing
+ * {@code ByteArrayOutputStream} plus ImageIO's own cache copy.
+ */
+class PooledImageOutputStream extends ImageOutputStreamImpl {
+
+    private final RasterBufferPool pool;
+    private RasterBufferPool.Lease<ByteBuffer> lease;
+    private long length;
+
+    PooledImageOutputStream(RasterBufferPool pool, int expectedBytes) {
+        this.pool = pool;
+        this.lease = pool.borrowDirect(expectedBytes);
+        lease.get().limit(lease.get().capacity());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        lease.get().put((int) streamPos++, (byte) b);
+        length = Math.max(length, streamPos);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity(streamPos + len);
+        ByteBuffer buffer = lease.get();
+        buffer.position((int) streamPos);
+        buffer.put(b, off, len);
+        streamPos += len;
+        length = Math.max(length, streamPos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        return lease.get().get((int) streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int n = (int) Math.min(len, length - streamPos);
+        ByteBuffer buffer = lease.get();
+        buffer.position((int) streamPos);
+        buffer.get(b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Hands over the encoded bytes (position 0, limit at the end of the data).
+     * The caller owns the lease from now on; the stream must not be used again.
+     */
+    RasterBufferPool.Lease<ByteBuffer> detach() {
+        RasterBufferPool.Lease<ByteBuffer> result = lease;
+        lease = null;
+        result.get().clear().limit((int) length);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (lease != null) {
+            lease.close();
+            lease = null;
+        }
+    }
+
+    private void ensureCapacity(long needed) throws IOException {
+        ByteBuffer current = lease.get();
+        if (needed <= current.capacity()) {
+            return;
+        }
+        if (needed > Integer.MAX_VALUE) {
+            throw new IOException("Encoded image too large: " + needed + " bytes");
+        }
+        RasterBufferPool.Lease<ByteBuffer> bigger = pool.borrowDirect((int) Math.max(needed, 2L * current.capacity()));
+        bigger.get().limit(bigger.get().capacity());
+        current.clear().limit((int) length);
+        bigger.get().put(current);
+        lease.close();
+        lease = bigger;
+    }
+}
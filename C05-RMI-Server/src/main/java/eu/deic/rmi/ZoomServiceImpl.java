@@ -1,15 +1,19 @@
 package eu.deic.rmi;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 
 public class ZoomServiceImpl extends UnicastRemoteObject implements ZoomService {
 
@@ -17,6 +21,11 @@ public class ZoomServiceImpl extends UnicastRemoteObject implements ZoomService
 	private static final long serialVersionUID = 1L;
 	private static final Logger LOGGER = Logger.getLogger(ZoomServiceImpl.class.getName());
 
+    // Decoder subsampling skips pixels instead of averaging them, so it aliases.
+    // Downscales stop subsampling at this many times the output size: the aliasing
+    // stays small and the halving passes filter the rest, for more pixels decoded
+    private static final int SUBSAMPLING_MARGIN = 2;
+
 
     public ZoomServiceImpl() throws RemoteException {
         super();
@@ -40,32 +49,10 @@ public class ZoomServiceImpl extends UnicastRemoteObject implements ZoomService
             throw new RemoteException(errorMessage);
         }
 
-        try {
-           
-            LOGGER.info("Image size before processing: " + imageData.length + " bytes");
-
-           
-            BufferedImage originalImage = readImageFromBytes(imageData);
-            if (originalImage == null) {
-                throw new RemoteException("Image could not be read. Invalid format or corrupted data.");
-            }
-
-           
-            LOGGER.info("Original image dimensions: " + originalImage.getWidth() + "x" + originalImage.getHeight());
-
-           
-            BufferedImage zoomedImage = resizeImage(originalImage, zoomPercent);
-
-           
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(zoomedImage, "jpg", outputStream);
-            byte[] zoomedImageData = outputStream.toByteArray();
-
-            
-            LOGGER.info("Zoomed image size: " + zoomedImageData.length + " bytes");
-
+        try (RasterBufferPool.Lease<ByteBuffer> zoomed = zoom(ByteBuffer.wrap(imageData), zoomPercent)) {
+            byte[] zoomedImageData = new byte[zoomed.get().remaining()];
+            zoomed.get().get(zoomedImageData);
             return zoomedImageData;
-
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error during image processing", e);
             throw new RemoteException("Error during image processing: " + e.getMessage(), e);
@@ -73,25 +60,111 @@ public class ZoomServiceImpl extends UnicastRemoteObject implements ZoomService
     }
 
    
-    private BufferedImage readImageFromBytes(byte[] imageData) {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(imageData)) {
-            return ImageIO.read(inputStream);
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Failed to read image data", e);
-            return null;
+    /**
+     * Zooms the encoded image in {@code imageData} and returns the JPEG in a
+     * pooled direct buffer, which the caller must close once it has been sent.
+     * Used directly by the NIO transport; decode and resize work on pooled
+     * rasters, so a steady stream of requests allocates almost nothing.
+     * Downscales only decode a subsample of the source pixels, so their cost
+     * follows the output size rather than the input size.
+     */
+    public RasterBufferPool.Lease<ByteBuffer> zoom(ByteBuffer imageData, int zoomPercent) throws IOException {
+        if (!imageData.hasRemaining()) {
+            throw new IOException("Invalid image data: null or empty");
+        }
+        if (zoomPercent <= 0) {
+            throw new IOException("Invalid zoom percentage: must be > 0");
+        }
+
+        LOGGER.info("Image size before processing: " + imageData.remaining() + " bytes");
+        RasterBufferPool pool = RasterBufferPool.shared();
+        try (ImageInputStream input = new ByteBufferImageInputStream(imageData);
+                PooledImage originalImage = PooledImage.decode(pool, input,
+                        (width, height) -> subsampling(width, height, zoomPercent))) {
+            if (originalImage == null) {
+                throw new IOException("Image could not be read. Invalid format or corrupted data.");
+            }
+
+            int sourceWidth = originalImage.sourceWidth();
+            int sourceHeight = originalImage.sourceHeight();
+            LOGGER.info("Original image dimensions: " + sourceWidth + "x" + sourceHeight
+                    + ", decoded at " + originalImage.get().getWidth() + "x" + originalImage.get().getHeight());
+
+            int newWidth = Math.max(1, sourceWidth * zoomPercent / 100);
+            int newHeight = Math.max(1, sourceHeight * zoomPercent / 100);
+            try (PooledImage zoomedImage = resizeImage(pool, originalImage.get(), newWidth, newHeight)) {
+                RasterBufferPool.Lease<ByteBuffer> encoded = encodeJpeg(pool, zoomedImage.get(), imageData.remaining());
+                LOGGER.info("Zoomed image size: " + encoded.get().remaining() + " bytes");
+                return encoded;
+            }
+        }
+    }
+
+    private RasterBufferPool.Lease<ByteBuffer> encodeJpeg(RasterBufferPool pool, BufferedImage image, int expectedBytes)
+            throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        PooledImageOutputStream output = new PooledImageOutputStream(pool, expectedBytes);
+        try {
+            writer.setOutput(output);
+            writer.write(image);
+            return output.detach();
+        } finally {
+            writer.dispose();
+            output.close();
         }
     }
 
    
-    private BufferedImage resizeImage(BufferedImage originalImage, int zoomPercent) {
-        int newWidth = originalImage.getWidth() * zoomPercent / 100;
-        int newHeight = originalImage.getHeight() * zoomPercent / 100;
+    // Largest factor that still leaves SUBSAMPLING_MARGIN times the output size, 1 when zooming in
+    static int subsampling(int width, int height, int zoomPercent) {
+        int newWidth = Math.max(1, width * zoomPercent / 100);
+        int newHeight = Math.max(1, height * zoomPercent / 100);
+        return Math.max(1, Math.min(width / (SUBSAMPLING_MARGIN * newWidth), height / (SUBSAMPLING_MARGIN * newHeight)));
+    }
 
-        BufferedImage resizedImage = new BufferedImage(newWidth, newHeight, originalImage.getType());
-        Graphics2D g2d = resizedImage.createGraphics();
+    private PooledImage resizeImage(RasterBufferPool pool, BufferedImage originalImage, int newWidth, int newHeight) {
+        // Halve while still at least twice the output: bilinear at exactly 2:1
+        // averages each 2x2 block, so this is a box-filtered mipmap chain
+        PooledImage level = null;
+        BufferedImage current = originalImage;
+        try {
+            while (current.getWidth() / 2 >= newWidth && current.getHeight() / 2 >= newHeight) {
+                PooledImage half = draw(pool, current, current.getWidth() / 2, current.getHeight() / 2);
+                if (level != null) {
+                    level.close();
+                }
+                level = half;
+                current = half.get();
+            }
+            if (level != null && current.getWidth() == newWidth && current.getHeight() == newHeight) {
+                PooledImage resized = level;
+                level = null;
+                return resized;
+            }
+            return draw(pool, current, newWidth, newHeight);
+        } finally {
+            if (level != null) {
+                level.close();
+            }
+        }
+    }
 
+    private PooledImage draw(RasterBufferPool pool, BufferedImage source, int width, int height) {
+        // Always RGB: the result is written as JPEG, which has no alpha channel anyway
+        PooledImage resizedImage = PooledImage.createRgb(pool, width, height);
+        Graphics2D g2d = resizedImage.get().createGraphics();
+
+        if (source.getColorModel().hasAlpha()) {
+            // Pooled pixels are stale, so blend transparent sources over black like a fresh image would
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.setColor(Color.BLACK);
+            g2d.fillRect(0, 0, width, height);
+            g2d.setComposite(AlphaComposite.SrcOver);
+        } else {
+            g2d.setComposite(AlphaComposite.Src);
+        }
         g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.drawImage(originalImage, 0, 0, newWidth, newHeight, null);
+        g2d.drawImage(source, 0, 0, width, height, null);
         g2d.dispose();
 
         return resizedImage;
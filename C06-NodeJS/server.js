@@ -90,6 +90,27 @@ async function initMySQL() {
   `;
   await mysqlPool.query(createTableQuery);
   console.log("Ensured MySQL table 'pictures' exists.");
+
+  // Deep-zoom pyramids: descriptor is filled in once every tile is stored
+  await mysqlPool.query(`
+    CREATE TABLE IF NOT EXISTS pyramids (
+      id INT AUTO_INCREMENT PRIMARY KEY,
+      tile_size INT NOT NULL,
+      descriptor JSON,
+      created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+    )
+  `);
+  await mysqlPool.query(`
+    CREATE TABLE IF NOT EXISTS pyramid_tiles (
+      pyramid_id INT NOT NULL,
+      level INT NOT NULL,
+      x INT NOT NULL,
+      y INT NOT NULL,
+      image_data MEDIUMBLOB,
+      PRIMARY KEY (pyramid_id, level, x, y)
+    )
+  `);
+  console.log("Ensured MySQL tables 'pyramids' and 'pyramid_tiles' exist.");
 }
 
 
@@ -163,6 +184,141 @@ app.get("/api/bmp/:id", async (req, res) => {
 
 
 
+app.post("/api/pyramids", async (req, res) => {
+  try {
+    const tileSize = parseInt(req.body && req.body.tileSize, 10);
+    if (isNaN(tileSize) || tileSize <= 0) {
+      return res.status(400).json({ error: "Invalid tile size" });
+    }
+
+    const [result] = await mysqlPool.query(
+      "INSERT INTO pyramids (tile_size) VALUES (?)",
+      [tileSize]
+    );
+
+    return res.status(201).json({ pyramidId: result.insertId });
+  } catch (error) {
+    console.error("Error creating pyramid:", error);
+    return res.status(500).json({ error: "Internal Server Error" });
+  }
+});
+
+
+app.put("/api/pyramids/:id", async (req, res) => {
+  try {
+    const pyramidId = parseInt(req.params.id, 10);
+    if (isNaN(pyramidId) || !req.body || !Array.isArray(req.body.levels)) {
+      return res.status(400).json({ error: "Invalid pyramid descriptor" });
+    }
+
+    await mysqlPool.query(
+      "UPDATE pyramids SET descriptor = ? WHERE id = ?",
+      [JSON.stringify(req.body), pyramidId]
+    );
+
+    return res.json({ pyramidId });
+  } catch (error) {
+    console.error("Error storing pyramid descriptor:", error);
+    return res.status(500).json({ error: "Internal Server Error" });
+  }
+});
+
+
+// Discards a pyramid that could not be completed, with whatever tiles were stored
+app.delete("/api/pyramids/:id", async (req, res) => {
+  try {
+    const pyramidId = parseInt(req.params.id, 10);
+    if (isNaN(pyramidId)) {
+      return res.status(400).json({ error: "Invalid pyramid ID" });
+    }
+
+    await mysqlPool.query("DELETE FROM pyramid_tiles WHERE pyramid_id = ?", [pyramidId]);
+    await mysqlPool.query("DELETE FROM pyramids WHERE id = ?", [pyramidId]);
+
+    return res.status(204).end();
+  } catch (error) {
+    console.error("Error deleting pyramid:", error);
+    return res.status(500).json({ error: "Internal Server Error" });
+  }
+});
+
+
+app.get("/api/pyramids/:id", async (req, res) => {
+  try {
+    const pyramidId = parseInt(req.params.id, 10);
+    if (isNaN(pyramidId)) {
+      return res.status(400).json({ error: "Invalid pyramid ID" });
+    }
+
+    const [rows] = await mysqlPool.query(
+      "SELECT descriptor FROM pyramids WHERE id = ? AND descriptor IS NOT NULL",
+      [pyramidId]
+    );
+
+    if (!rows || rows.length === 0) {
+      return res.status(404).json({ error: "Pyramid not found" });
+    }
+
+    const descriptor = rows[0].descriptor;
+    return res.json(typeof descriptor === "string" ? JSON.parse(descriptor) : descriptor);
+  } catch (error) {
+    console.error("Error fetching pyramid:", error);
+    return res.status(500).json({ error: "Internal Server Error" });
+  }
+});
+
+
+app.post("/api/pyramids/:id/tiles/:level/:x/:y", async (req, res) => {
+  try {
+    const [pyramidId, level, x, y] = [req.params.id, req.params.level, req.params.x, req.params.y]
+      .map((value) => parseInt(value, 10));
+    if ([pyramidId, level, x, y].some(isNaN)) {
+      return res.status(400).json({ error: "Invalid tile address" });
+    }
+    if (!req.body || !req.body.length) {
+      return res.status(400).json({ error: "No tile data provided." });
+    }
+
+    await mysqlPool.query(
+      "REPLACE INTO pyramid_tiles (pyramid_id, level, x, y, image_data) VALUES (?, ?, ?, ?, ?)",
+      [pyramidId, level, x, y, req.body]
+    );
+
+    return res.status(201).json({ pyramidId, level, x, y });
+  } catch (error) {
+    console.error("Error storing pyramid tile:", error);
+    return res.status(500).json({ error: "Internal Server Error" });
+  }
+});
+
+
+app.get("/api/pyramids/:id/tiles/:level/:x/:y", async (req, res) => {
+  try {
+    const [pyramidId, level, x, y] = [req.params.id, req.params.level, req.params.x, req.params.y]
+      .map((value) => parseInt(value, 10));
+    if ([pyramidId, level, x, y].some(isNaN)) {
+      return res.status(400).json({ error: "Invalid tile address" });
+    }
+
+    const [rows] = await mysqlPool.query(
+      "SELECT image_data FROM pyramid_tiles WHERE pyramid_id = ? AND level = ? AND x = ? AND y = ?",
+      [pyramidId, level, x, y]
+    );
+
+    if (!rows || rows.length === 0) {
+      return res.status(404).json({ error: "Tile not found" });
+    }
+
+    // Tiles never change once the pyramid is published
+    res.setHeader("Content-Type", "image/png");
+    res.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    return res.send(rows[0].image_data);
+  } catch (error) {
+    console.error("Error fetching pyramid tile:", error);
+    return res.status(500).json({ error: "Internal Server Error" });
+  }
+});
+
 
 
 app.listen(PORT, () => {